@@ -0,0 +1,19 @@
+package com.github.dfauth.dbstreamer;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// runs the benchmarks matching the first argument (all of them by default) with allocation rates from the GC profiler
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "com\\.github\\.dfauth\\.dbstreamer\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.dfauth.dbstreamer;
+
+import org.openjdk.jmh.annotations.*;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// the hand off of batches between the reading and the writing thread
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueHandoffBenchmark {
+
+    private static final int ITEMS = 10000;
+
+    @State(Scope.Group)
+    public static class Ring {
+        final SpscRingBuffer<Object> buffer = new SpscRingBuffer<>(1024);
+        final Object item = new Object();
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public void offer(Ring ring) {
+        while(!ring.buffer.offer(ring.item)) {
+        }
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public Object poll(Ring ring) {
+        Object o;
+        while((o = ring.buffer.poll()) == null) {
+        }
+        return o;
+    }
+
+    @State(Scope.Thread)
+    public static class Stream {
+
+        @Param({"2", "16"})
+        public int prefetch;
+
+        final Object[] items = new Object[ITEMS];
+        ExecutorService executor;
+
+        @Setup
+        public void setup() {
+            for(int i=0; i<ITEMS; i++) {
+                items[i] = new Object();
+            }
+            executor = Executors.newSingleThreadExecutor(new ExecutionEngine.NamedThreadFactory("jmh-drain"));
+        }
+
+        @TearDown
+        public void tearDown() {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public long fluxQueueWrapper(Stream stream) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        long[] received = new long[1];
+        new FluxQueueWrapper<>(publisherOf(stream.items), stream.prefetch, stream.executor).subscribe(new Subscriber<Object>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Object o) {
+                received[0]++;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        done.await();
+        return received[0];
+    }
+
+    // emits on the requesting thread, as the source cursor does once it has demand
+    private static Publisher<Object> publisherOf(Object[] items) {
+        return s -> s.onSubscribe(new Subscription() {
+            private int next = 0;
+            private long demand = 0;
+            private boolean emitting = false;
+
+            @Override
+            public synchronized void request(long n) {
+                demand += n;
+                if(emitting) {
+                    return;
+                }
+                emitting = true;
+                while(demand > 0 && next < items.length) {
+                    demand--;
+                    s.onNext(items[next++]);
+                }
+                emitting = false;
+                if(next == items.length) {
+                    next++;
+                    s.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                next = items.length + 1;
+            }
+        });
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.dfauth.dbstreamer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.*;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+// per row decode and encode of a single column, through the boxed ColumnUpdate path and the columnar RowBatch path.
+// rows come from an in-memory HSQLDB result set so the driver's own accessor cost is part of every figure
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RowCodecBenchmark {
+
+    private static final int ROWS = 1024;
+
+    @Param({"integer", "bigint", "double precision", "character varying", "numeric", "date", "timestamp"})
+    public String type;
+
+    private Connection connection;
+    private ResultSet resultSet;
+    private PreparedStatement pstmt;
+    private ColumnDefinition column;
+    private RowCodec codec;
+    private RowBatch decoded;
+    private RowBatch encoded;
+    private Object[] values;
+    private TableRowUpdate[] rowUpdates;
+    private int row;
+
+    @Setup
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:codec"+type.replace(' ', '_'), "SA", "");
+        try(Statement st = connection.createStatement()) {
+            st.execute("drop table T if exists");
+            st.execute("create table T (V "+ddlType(type)+")");
+        }
+        try(PreparedStatement insert = connection.prepareStatement("insert into T (V) values (?)")) {
+            for(int i=0; i<ROWS; i++) {
+                if(i % 10 == 0) {
+                    insert.setNull(1, Types.NULL);
+                } else {
+                    insert.setObject(1, valueOf(type, i));
+                }
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        column = new ColumnDefinition("T", 1, "V", DataType.Factory.findBySqlType(type).create());
+        TreeSet<ColumnDefinition> columns = new TreeSet<>(ColumnDefinition.comparator);
+        columns.add(column);
+        TableDefinition tableDef = new TableDefinition("T", columns);
+        codec = tableDef.getCodec();
+        resultSet = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY).executeQuery("select V from T");
+        pstmt = connection.prepareStatement("insert into T (V) values (?)");
+        decoded = codec.newBatch(ROWS);
+        encoded = codec.newBatch(ROWS);
+        values = new Object[ROWS];
+        rowUpdates = new TableRowUpdate[ROWS];
+        for(int i=0; i<ROWS; i++) {
+            next();
+            codec.readInto(resultSet, encoded);
+            values[i] = column.read(resultSet).getResult();
+        }
+        for(int i=0; i<ROWS; i++) {
+            rowUpdates[i] = encoded.getRow(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private void next() throws SQLException {
+        if(!resultSet.next()) {
+            resultSet.beforeFirst();
+            resultSet.next();
+        }
+    }
+
+    private int nextRow() {
+        row = (row + 1) & (ROWS - 1);
+        return row;
+    }
+
+    @Benchmark
+    public ColumnUpdate decodeColumnUpdate() throws SQLException {
+        next();
+        return column.read(resultSet);
+    }
+
+    @Benchmark
+    public int decodeRowBatch() throws SQLException {
+        next();
+        if(decoded.isFull()) {
+            decoded.clear();
+        }
+        codec.readInto(resultSet, decoded);
+        return decoded.size();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void encodeColumnDefinition() throws SQLException {
+        column.update(pstmt, 1, values[nextRow()]);
+    }
+
+    @Benchmark
+    public void encodeRowBatch() throws SQLException {
+        codec.bind(pstmt, encoded, nextRow());
+    }
+
+    @Benchmark
+    public void addBatchTableRowUpdate() throws SQLException {
+        int i = nextRow();
+        rowUpdates[i].addBatch(pstmt);
+        if(i == 0) {
+            pstmt.clearBatch();
+        }
+    }
+
+    private static String ddlType(String type) {
+        switch(type) {
+            case "character varying":
+                return "varchar(32)";
+            case "numeric":
+                return "numeric(18,4)";
+            default:
+                return type;
+        }
+    }
+
+    private static Object valueOf(String type, int i) {
+        switch(type) {
+            case "integer":
+                return i;
+            case "bigint":
+                return (long) i << 20;
+            case "double precision":
+                return i * 1.5;
+            case "character varying":
+                return "value-"+i;
+            case "numeric":
+                return new java.math.BigDecimal(i).movePointLeft(2);
+            case "date":
+                return new Date(86400000L * i);
+            case "timestamp":
+                return new Timestamp(1000L * i);
+            default:
+                throw new IllegalArgumentException(type);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// a single table of generated rows, reproducible from its seed. the column mix is a comma separated list of
+// type:count pairs, eg. integer:2,varchar:3,blob:1,clob:1
+public class SyntheticData {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyntheticData.class);
+
+    public static final String TABLE = "SYNTHETIC";
+    public static final String DEFAULT_COLUMNS = "integer:2,bigint:1,double:1,numeric:1,varchar:3,date:1,timestamp:1,boolean:1";
+    private static final int INSERT_BATCH = 1000;
+    private static final String CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ";
+
+    private final long rows;
+    private final List<String> types;
+    private final double nullRatio;
+    private final int lobSize;
+    private final long seed;
+
+    public SyntheticData(long rows, String columns, double nullRatio, int lobSize, long seed) {
+        this.rows = rows;
+        this.types = parse(columns);
+        this.nullRatio = nullRatio;
+        this.lobSize = lobSize;
+        this.seed = seed;
+    }
+
+    private static List<String> parse(String columns) {
+        List<String> tmp = new ArrayList<>();
+        for(String s : columns.split(",")) {
+            String[] pair = s.trim().split(":");
+            String type = pair[0].trim().toLowerCase();
+            ddlType(type, 0);
+            tmp.addAll(Collections.nCopies(pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1, type));
+        }
+        return tmp;
+    }
+
+    private static String ddlType(String type, int lobSize) {
+        switch(type) {
+            case "integer":
+            case "bigint":
+            case "date":
+            case "timestamp":
+            case "boolean":
+                return type;
+            case "double":
+                return "double precision";
+            case "numeric":
+                return "numeric(18,4)";
+            case "varchar":
+                return "varchar(64)";
+            case "blob":
+                return "blob("+Math.max(lobSize, 1)+")";
+            case "clob":
+                return "clob("+Math.max(lobSize, 1)+")";
+            default:
+                throw new IllegalArgumentException("Unknown or unsupported synthetic column type: "+type);
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public String ddl() {
+        List<String> columns = new ArrayList<>();
+        columns.add("ID bigint primary key");
+        for(int i=0; i<types.size(); i++) {
+            columns.add(columnName(i)+" "+ddlType(types.get(i), lobSize));
+        }
+        return String.format("create table %s (%s)", TABLE, String.join(", ", columns));
+    }
+
+    private static String columnName(int i) {
+        return "C"+(i+1);
+    }
+
+    public void createSchema(DataSource dataSource) {
+        execute(dataSource, "drop table "+TABLE+" if exists", ddl());
+    }
+
+    public void populate(DataSource dataSource) {
+        createSchema(dataSource);
+        String insert = String.format("insert into %s values (%s)", TABLE, String.join(",", Collections.nCopies(types.size() + 1, "?")));
+        Random random = new Random(seed);
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement pstmt = connection.prepareStatement(insert);
+            for(long row=0; row<rows; row++) {
+                pstmt.setLong(1, row);
+                for(int i=0; i<types.size(); i++) {
+                    set(pstmt, i+2, types.get(i), random);
+                }
+                pstmt.addBatch();
+                if((row+1) % INSERT_BATCH == 0) {
+                    pstmt.executeBatch();
+                    connection.commit();
+                }
+            }
+            if(rows % INSERT_BATCH != 0) {
+                pstmt.executeBatch();
+            }
+            connection.commit();
+            logger.info("generated "+rows+" rows of "+(types.size()+1)+" columns in "+TABLE);
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            close(connection);
+        }
+    }
+
+    private void set(PreparedStatement pstmt, int i, String type, Random random) throws SQLException {
+        if(random.nextDouble() < nullRatio) {
+            pstmt.setNull(i, Types.NULL);
+            return;
+        }
+        switch(type) {
+            case "integer":
+                pstmt.setInt(i, random.nextInt());
+                break;
+            case "bigint":
+                pstmt.setLong(i, random.nextLong());
+                break;
+            case "double":
+                pstmt.setDouble(i, random.nextDouble() * 1e6);
+                break;
+            case "numeric":
+                pstmt.setBigDecimal(i, BigDecimal.valueOf(random.nextInt(100000000), 4));
+                break;
+            case "varchar":
+                pstmt.setString(i, string(random, 8 + random.nextInt(57)));
+                break;
+            case "date":
+                pstmt.setDate(i, new Date(86400000L * random.nextInt(20000)));
+                break;
+            case "timestamp":
+                pstmt.setTimestamp(i, new Timestamp(1000L * random.nextInt(Integer.MAX_VALUE)));
+                break;
+            case "boolean":
+                pstmt.setBoolean(i, random.nextBoolean());
+                break;
+            case "blob":
+                byte[] bytes = new byte[lobSize];
+                random.nextBytes(bytes);
+                pstmt.setBytes(i, bytes);
+                break;
+            case "clob":
+                pstmt.setString(i, string(random, lobSize));
+                break;
+        }
+    }
+
+    private static String string(Random random, int length) {
+        char[] chars = new char[length];
+        for(int i=0; i<length; i++) {
+            chars[i] = CHARS.charAt(random.nextInt(CHARS.length()));
+        }
+        return new String(chars);
+    }
+
+    private static void execute(DataSource dataSource, String... statements) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            try(Statement st = connection.createStatement()) {
+                for(String s : statements) {
+                    st.execute(s);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            close(connection);
+        }
+    }
+
+    private static void close(Connection connection) {
+        if(connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.dfauth.dbstreamer;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// copies a generated table between two HSQLDB databases and prints a single line report suitable for comparing
+// between commits. heap is sampled every few milliseconds so the peak is a lower bound of the true peak
+public class ThroughputBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThroughputBenchmark.class);
+
+    private static Options options = new Options();
+
+    static {
+        options.addOption("rows", true, "number of rows to generate");
+        options.addOption("columns", true, "column mix as type:count pairs, eg. "+SyntheticData.DEFAULT_COLUMNS);
+        options.addOption("nullRatio", true, "fraction of generated values that are null");
+        options.addOption("lobSize", true, "size of each generated blob in bytes, or clob in characters");
+        options.addOption("seed", true, "random seed of the generator");
+        options.addOption("dir", true, "directory for file backed databases, in memory if absent");
+        options.addOption("chunks", true, "number of key range chunks to read the table in");
+        options.addOption("writers", true, "number of writers per table");
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine line = parser.parse(options, args);
+
+        SyntheticData data = new SyntheticData(
+                Long.parseLong(line.getOptionValue("rows", "100000")),
+                line.getOptionValue("columns", SyntheticData.DEFAULT_COLUMNS),
+                Double.parseDouble(line.getOptionValue("nullRatio", "0.1")),
+                Integer.parseInt(line.getOptionValue("lobSize", "1024")),
+                Long.parseLong(line.getOptionValue("seed", "1")));
+
+        String dir = line.getOptionValue("dir");
+        DataSource source = dataSource(dir, "source");
+        DataSource target = dataSource(dir, "target");
+        data.populate(source);
+        data.createSchema(target);
+
+        Metrics metrics = new Metrics(null);
+        DbStreamer streamer = new DbStreamer(source, target)
+                .withMetrics(metrics)
+                .withChunks(Integer.parseInt(line.getOptionValue("chunks", "1")))
+                .withWriteOptions(WriteOptions.DEFAULT.withWriters(Integer.parseInt(line.getOptionValue("writers", "1"))));
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+        long baseline = memory.getHeapMemoryUsage().getUsed();
+        AtomicLong peak = new AtomicLong(baseline);
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new ExecutionEngine.NamedThreadFactory("heap-sampler"));
+        sampler.scheduleAtFixedRate(() -> peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max), 0, 5, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        try {
+            streamer.stream();
+        } finally {
+            sampler.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int copied = streamer.getTargetdB().countRows(SyntheticData.TABLE);
+        if(copied != data.getRows()) {
+            throw new IllegalStateException("copied "+copied+" of "+data.getRows()+" rows");
+        }
+        TableMetrics global = metrics.getGlobal();
+        System.out.println(String.format("rows=%d seconds=%.3f rows/s=%.0f MB/s=%.2f peakHeapMB=%.1f baselineHeapMB=%.1f",
+                global.getRowsWritten(),
+                seconds,
+                global.getRowsWritten() / seconds,
+                global.getBytesWritten() / seconds / (1 << 20),
+                peak.get() / (double) (1 << 20),
+                baseline / (double) (1 << 20)));
+        System.exit(0);
+    }
+
+    private static DataSource dataSource(String dir, String name) {
+        String url = dir == null ? "jdbc:hsqldb:mem:"+name : "jdbc:hsqldb:file:"+dir+"/"+name+";shutdown=true";
+        logger.info("using "+url);
+        return DataSourceConfig.builder().
+                withDriver("org.hsqldb.jdbcDriver").
+                withUrl(url).
+                withUsername("SA").
+                withPassword("").
+                build();
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.dfauth.dbstreamer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Types;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+// the per batch work of the transform processor between source and target, reported per row
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformBenchmark {
+
+    private static final int ROWS = 1000;
+
+    @Param({"identity", "passthrough", "rewrite"})
+    public String transform;
+
+    private RowBatch batch;
+    private UnaryOperator<ColumnUpdate> f;
+
+    @Setup
+    public void setup() {
+        TreeSet<ColumnDefinition> columns = new TreeSet<>(ColumnDefinition.comparator);
+        columns.add(new ColumnDefinition("T", 1, "ID", DataType.Factory.INTEGER_FACTORY.create()));
+        columns.add(new ColumnDefinition("T", 2, "BIG", DataType.Factory.LONG_FACTORY.create()));
+        columns.add(new ColumnDefinition("T", 3, "NAME", DataType.Factory.VARCHAR_FACTORY.create()));
+        columns.add(new ColumnDefinition("T", 4, "SALARY", DataType.Factory.DOUBLE_FACTORY.create()));
+        batch = new TableDefinition("T", columns).getCodec().newBatch(ROWS);
+        for(int i=0; i<ROWS; i++) {
+            int row = batch.addRow();
+            batch.setInt(0, row, i);
+            batch.setLong(1, row, (long) i << 20);
+            batch.setObject(2, row, "name-"+i);
+            batch.setDouble(3, row, i * 1.5);
+        }
+        switch(transform) {
+            case "identity":
+                // no transform, as DbStreamer passes for an untransformed table
+                f = null;
+                break;
+            case "passthrough":
+                f = cu -> cu;
+                break;
+            default:
+                f = cu -> cu.getColumnDefinition().getDataType().sqlType() == Types.VARCHAR && cu.getResult() != null
+                        ? new ColumnUpdate(cu.getColumnDefinition(), cu.getResult().toString().toUpperCase())
+                        : cu;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public RowBatch transform() {
+        return DbStreamer.transform(batch, f);
+    }
+}
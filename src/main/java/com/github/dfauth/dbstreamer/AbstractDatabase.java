@@ -8,18 +8,152 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.*;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 
 public abstract class AbstractDatabase {
 
     protected static final Logger logger = LoggerFactory.getLogger(AbstractDatabase.class);
     protected final DataSource dataSource;
+    private volatile Dialect dialect;
 
     public AbstractDatabase(DataSource dataSource) {
         this.dataSource = dataSource;
     }
 
+    public Dialect getDialect() {
+        if(dialect == null) {
+            Connection connection = null;
+            try {
+                connection = dataSource.getConnection();
+                dialect = Dialect.of(connection);
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            } finally {
+                if(connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException e) {
+                        logger.error(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        return dialect;
+    }
+
+    public List<String> tables() {
+        Connection connection = null;
+        try {
+            List<String> tmp = new ArrayList<>();
+            connection = this.dataSource.getConnection();
+            ResultSet resultSet = connection.getMetaData().getTables(connection.getCatalog(), connection.getSchema(), "%", new String[]{"TABLE"});
+            while (resultSet.next()) {
+                String tableName = resultSet.getString("TABLE_NAME");
+                tmp.add(tableName);
+            }
+            return tmp;
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            if(connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private ColumnDefinition toColumnDefinition(String table, int ordinalPosition, String columnName, int jdbcType, String typeName) {
+        DataType dataType = DataType.Factory.findByColumnType(jdbcType, typeName).create();
+        return new ColumnDefinition(table, ordinalPosition, columnName, dataType);
+    }
+
+    public SortedSet<ColumnDefinition> columnDefs(String table) {
+        Connection connection = null;
+        try {
+            SortedSet<ColumnDefinition> tmp = new TreeSet<>(ColumnDefinition.comparator);
+            connection = this.dataSource.getConnection();
+            ResultSet resultSet = connection.getMetaData().getColumns(connection.getCatalog(), connection.getSchema(), table, "%");
+            while (resultSet.next()) {
+                // the table name is a pattern, in which an underscore matches any character
+                if(!table.equals(resultSet.getString("TABLE_NAME"))) {
+                    continue;
+                }
+                String columnName = resultSet.getString("COLUMN_NAME");
+                int ordinalPosition = resultSet.getInt("ORDINAL_POSITION");
+                ColumnDefinition columnDef = toColumnDefinition(table, ordinalPosition, columnName, resultSet.getInt("DATA_TYPE"), resultSet.getString("TYPE_NAME"));
+                tmp.add(columnDef);
+            }
+            return tmp;
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            if(connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    public List<String> primaryKey(String table) {
+        Connection connection = null;
+        try {
+            SortedMap<Short, String> tmp = new TreeMap<>();
+            connection = this.dataSource.getConnection();
+            ResultSet resultSet = connection.getMetaData().getPrimaryKeys(connection.getCatalog(), connection.getSchema(), table);
+            while (resultSet.next()) {
+                tmp.put(resultSet.getShort("KEY_SEQ"), resultSet.getString("COLUMN_NAME"));
+            }
+            return new ArrayList<>(tmp.values());
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            if(connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    public Set<String> referencedTables(String table) {
+        Connection connection = null;
+        try {
+            Set<String> tmp = new HashSet<>();
+            connection = this.dataSource.getConnection();
+            ResultSet resultSet = connection.getMetaData().getImportedKeys(connection.getCatalog(), connection.getSchema(), table);
+            while (resultSet.next()) {
+                tmp.add(resultSet.getString("PKTABLE_NAME"));
+            }
+            return tmp;
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            if(connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
     public <T> T executePreparedStatementForQuery(String sql, Function<ResultSet, T> f) {
         return executePreparedStatement(sql, p -> {
             try {
@@ -78,4 +212,145 @@ public abstract class AbstractDatabase {
             throw new IllegalStateException("No result returned"); // should never happen
         });
     }
+
+    // a scheduling hint read from catalog statistics, 0 where none are kept. never scans the table, as every table is estimated before any starts
+    public long estimateRows(String table) {
+        Optional<String> query = getDialect().rowEstimateQuery();
+        Connection connection = null;
+        try {
+            long estimate = 0;
+            connection = dataSource.getConnection();
+            // approximate index statistics are served from the catalog, the primary key's cardinality is the row count
+            ResultSet rs = connection.getMetaData().getIndexInfo(connection.getCatalog(), connection.getSchema(), table, false, true);
+            while(rs.next()) {
+                estimate = Math.max(estimate, rs.getLong("CARDINALITY"));
+            }
+            if(estimate <= 0 && query.isPresent()) {
+                PreparedStatement pstmt = connection.prepareStatement(query.get());
+                pstmt.setString(1, table);
+                rs = pstmt.executeQuery();
+                if(rs.next()) {
+                    estimate = Math.max(0, rs.getLong(1));
+                }
+            }
+            return estimate;
+        } catch (SQLException e) {
+            logger.warn("no catalog statistics for "+table+": "+e.getMessage());
+            return 0;
+        } finally {
+            if(connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    public RangeDigest digest(Chunk chunk, boolean pushdown) {
+        TableDefinition tableDef = chunk.getTableDefinition();
+        List<String> columns = tableDef.getColumnDefs().stream().map(ColumnDefinition::getName).collect(Collectors.toList());
+        Optional<String> query = pushdown ? getDialect().digestQuery(chunk.getTable(), columns, chunk.getWhereClause()) : Optional.empty();
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            if(query.isPresent()) {
+                PreparedStatement pstmt = connection.prepareStatement(query.get());
+                bind(pstmt, chunk);
+                ResultSet rs = pstmt.executeQuery();
+                rs.next();
+                // summed without overflow on the server, only the low 64 bits are kept, like the client side sum
+                return new RangeDigest(rs.getLong(1), rs.getBigDecimal(2).toBigInteger().longValue());
+            }
+            // hashed here, a batch at a time, so a range never has to fit in memory
+            connection.setReadOnly(true);
+            PreparedStatement pstmt = connection.prepareStatement(String.format("select %s from %s%s", String.join(",", columns), chunk.getTable(), chunk.getWhereClause()), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            getDialect().configureForRead(connection, pstmt, ReadOptions.DEFAULT);
+            bind(pstmt, chunk);
+            ResultSet rs = pstmt.executeQuery();
+            RowCodec codec = tableDef.getCodec();
+            RowBatch batch = codec.newBatch(ReadOptions.DEFAULT_FETCH_SIZE);
+            RangeDigest digest = RangeDigest.empty();
+            long bytes = 0;
+            while(rs.next()) {
+                bytes += codec.readInto(rs, batch);
+                if(batch.isFull() || bytes >= ReadOptions.DEFAULT_MAX_BATCH_BYTES) {
+                    digest.add(batch);
+                    batch.clear();
+                    bytes = 0;
+                }
+            }
+            digest.add(batch);
+            return digest;
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            if(connection != null) {
+                try {
+                    if(!connection.getAutoCommit()) {
+                        connection.commit();
+                        connection.setAutoCommit(true);
+                    }
+                    connection.setReadOnly(false);
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    public Optional<long[]> bounds(Chunk chunk, String column) {
+        return executePreparedStatement(String.format("select min(%s), max(%s) from %s%s", column, column, chunk.getTable(), chunk.getWhereClause()), p -> {
+            try {
+                bind(p, chunk);
+                ResultSet rs = p.executeQuery();
+                if(rs.next()) {
+                    long min = rs.getLong(1);
+                    if(!rs.wasNull()) {
+                        return Optional.of(new long[]{min, rs.getLong(2)});
+                    }
+                }
+                return Optional.<long[]>empty();
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    // the primary keys of the rows in the chunk, each read through its column's data type so both sides compare equal
+    public Set<List<Object>> keys(Chunk chunk) {
+        TableDefinition tableDef = chunk.getTableDefinition();
+        List<ColumnDefinition> columns = tableDef.getPrimaryKey().stream()
+                .map(k -> tableDef.getColumnDef(k).orElseThrow(() -> new IllegalArgumentException(tableDef.getName()+" has no key column "+k)))
+                .collect(Collectors.toList());
+        String select = columns.stream().map(ColumnDefinition::getName).collect(Collectors.joining(","));
+        return executePreparedStatement(String.format("select %s from %s%s", select, chunk.getTable(), chunk.getWhereClause()), p -> {
+            try {
+                bind(p, chunk);
+                ResultSet rs = p.executeQuery();
+                Set<List<Object>> tmp = new HashSet<>();
+                while(rs.next()) {
+                    List<Object> key = new ArrayList<>(columns.size());
+                    for(int i=0; i<columns.size(); i++) {
+                        key.add(columns.get(i).getDataType().read(rs, i+1));
+                    }
+                    tmp.add(key);
+                }
+                return tmp;
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    protected static void bind(PreparedStatement pstmt, Chunk chunk) throws SQLException {
+        for(int i=0; i<chunk.getParameters().size(); i++) {
+            pstmt.setObject(i+1, chunk.getParameters().get(i));
+        }
+    }
 }
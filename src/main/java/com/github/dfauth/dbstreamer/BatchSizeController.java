@@ -0,0 +1,87 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+public class BatchSizeController {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchSizeController.class);
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final int min;
+    private final int max;
+    private final long targetNanos;
+    private final long maxBytes;
+    private volatile int size;
+
+    private BatchSizeController(int initial, int min, int max, long targetNanos, long maxBytes) {
+        this.min = min;
+        this.max = max;
+        this.targetNanos = targetNanos;
+        this.maxBytes = maxBytes;
+        this.size = Math.max(min, Math.min(max, initial));
+    }
+
+    public static BatchSizeController fixed(int size) {
+        return new BatchSizeController(size, size, size, 0, Long.MAX_VALUE);
+    }
+
+    public static BatchSizeController adaptive(int initial, int min, int max, long targetLatency, TimeUnit unit) {
+        return adaptive(initial, min, max, targetLatency, unit, DEFAULT_MAX_BYTES);
+    }
+
+    public static BatchSizeController adaptive(int initial, int min, int max, long targetLatency, TimeUnit unit, long maxBytes) {
+        return new BatchSizeController(initial, min, max, unit.toNanos(targetLatency), maxBytes);
+    }
+
+    public int getBatchSize() {
+        return size;
+    }
+
+    public boolean isAdaptive() {
+        return min != max;
+    }
+
+    // called by the writer after each flush; the next batch is sized from the observed per row cost,
+    // capped by the byte budget and moving at most a factor of two per observation to damp noise
+    public void record(int rows, long bytes, long nanos) {
+        if(!isAdaptive() || rows == 0) {
+            return;
+        }
+        double nanosPerRow = Math.max(1.0, (double) nanos / rows);
+        double bytesPerRow = Math.max(1.0, (double) bytes / rows);
+        long desired = Math.min((long) (targetNanos / nanosPerRow), (long) (maxBytes / bytesPerRow));
+        int current = size;
+        long next = Math.max(current / 2, Math.min((long) current * 2, desired));
+        int bounded = (int) Math.max(min, Math.min(max, next));
+        if(bounded != current) {
+            logger.debug("batch of "+rows+" rows, "+bytes+" bytes took "+TimeUnit.NANOSECONDS.toMillis(nanos)+"ms, batch size "+current+" -> "+bounded);
+            size = bounded;
+        }
+    }
+
+    // a batch the target rejected, eg. for exceeding a packet size, is as likely to be too large as anything else,
+    // so the next one is half the size
+    public void failed(int rows) {
+        if(!isAdaptive()) {
+            return;
+        }
+        int current = size;
+        int bounded = Math.max(min, Math.min(current, rows) / 2);
+        if(bounded != current) {
+            logger.debug("batch of "+rows+" rows failed, batch size "+current+" -> "+bounded);
+            size = bounded;
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return isAdaptive() ? "BatchSizeController(size="+size+", bounds=["+min+", "+max+"], target="+TimeUnit.NANOSECONDS.toMillis(targetNanos)+"ms)" : "BatchSizeController(fixed="+size+")";
+    }
+}
@@ -0,0 +1,261 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+class BatchWriter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchWriter.class);
+
+    private final TableDefinition tableDef;
+    private final Connection connection;
+    private final RowCodec codec;
+    private final Dialect dialect;
+    private final WriteOptions options;
+    private final BatchSizeController controller;
+    private final TableMetrics metrics;
+    private final int rowsPerStatement;
+    private final boolean referentialIntegrityDisabled;
+    private PreparedStatement statement;
+    // the trailing partial statement of a multi row batch, whose row count varies with the batch size
+    private PreparedStatement remainderStatement;
+    private int remainderRows;
+    private long cnt = 0;
+    private long pendingRows = 0;
+    private int pendingBatches = 0;
+
+    BatchWriter(TableDefinition tableDef, Connection connection, Dialect dialect, WriteOptions options, BatchSizeController controller, TableMetrics metrics) throws SQLException {
+        this(tableDef, connection, dialect, options, controller, metrics, false);
+    }
+
+    // referentialIntegrityDisabled switches foreign key checks off for this connection, where the dialect scopes them per session
+    BatchWriter(TableDefinition tableDef, Connection connection, Dialect dialect, WriteOptions options, BatchSizeController controller, TableMetrics metrics, boolean referentialIntegrityDisabled) throws SQLException {
+        this.tableDef = tableDef;
+        this.referentialIntegrityDisabled = referentialIntegrityDisabled && dialect.sessionReferentialIntegrityStatement(false).isPresent();
+        this.connection = connection;
+        this.codec = tableDef.getCodec();
+        this.dialect = dialect;
+        this.options = options;
+        this.controller = controller;
+        this.metrics = metrics;
+        this.rowsPerStatement = rowsPerStatement(options, dialect, codec.width());
+        if(options.getMode() == WriteOptions.WriteMode.MULTI_ROW) {
+            logger.info("writing "+tableDef+" with "+rowsPerStatement+" rows per statement");
+        }
+        try {
+            if(options.isUpsert()) {
+                // fail before any connection state changes rather than on the first batch
+                TargetDatabase.upsertStatement(tableDef, dialect, 1);
+            }
+            if(this.referentialIntegrityDisabled) {
+                try(Statement st = connection.createStatement()) {
+                    st.execute(dialect.sessionReferentialIntegrityStatement(false).get());
+                }
+            }
+            if(options.getCommitMode() != WriteOptions.CommitMode.AUTO) {
+                connection.setAutoCommit(false);
+            }
+        } catch (SQLException | RuntimeException e) {
+            // the connection was handed over to this writer, nobody else will close it
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                logger.error(ex.getMessage(), ex);
+            }
+            throw e;
+        }
+    }
+
+    // the rows bound by one statement, as many as asked for while the dialect's row and parameter limits allow
+    static int rowsPerStatement(WriteOptions options, Dialect dialect, int width) {
+        if(options.getMode() != WriteOptions.WriteMode.MULTI_ROW) {
+            return 1;
+        }
+        int n = Math.min(options.getRowsPerStatement(), dialect.maxRowsPerStatement());
+        return Math.max(1, Math.min(n, dialect.maxParameters() / Math.max(1, width)));
+    }
+
+    public boolean write(RowBatch batch) throws SQLException {
+        long start = System.nanoTime();
+        boolean ok;
+        try {
+            ok = rowsPerStatement == 1 ? writeBatched(batch) : writeMultiRow(batch);
+        } catch (SQLException e) {
+            metrics.error();
+            controller.failed(batch.size());
+            throw e;
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = batch.estimateBytes();
+        metrics.written(batch.size(), bytes, elapsed);
+        if(!ok) {
+            metrics.error();
+        }
+        if(controller.isAdaptive()) {
+            controller.record(batch.size(), bytes, elapsed);
+        }
+        cnt += batch.size();
+        pendingRows += batch.size();
+        pendingBatches++;
+        if(commitDue()) {
+            commit();
+        }
+        return ok;
+    }
+
+    private boolean commitDue() {
+        switch(options.getCommitMode()) {
+            case BATCHES:
+                return pendingBatches >= options.getCommitInterval();
+            case ROWS:
+                return pendingRows >= options.getCommitInterval();
+            default:
+                return false;
+        }
+    }
+
+    private void commit() throws SQLException {
+        long start = System.nanoTime();
+        connection.commit();
+        logger.debug("committed "+pendingRows+" rows of "+tableDef+" in "+(System.nanoTime() - start)/1000+"us");
+        pendingRows = 0;
+        pendingBatches = 0;
+    }
+
+    public void complete() throws SQLException {
+        if(options.getCommitMode() != WriteOptions.CommitMode.AUTO && pendingBatches > 0) {
+            commit();
+        }
+    }
+
+    public void rollback() {
+        if(options.getCommitMode() == WriteOptions.CommitMode.AUTO) {
+            logger.warn("cannot roll back "+tableDef+" written with auto-commit");
+            return;
+        }
+        try {
+            connection.rollback();
+            logger.warn("rolled back "+pendingRows+" uncommitted rows of "+tableDef);
+            cnt -= pendingRows;
+            pendingRows = 0;
+            pendingBatches = 0;
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    public BatchSizeController getController() {
+        return controller;
+    }
+
+    public WriteOptions getOptions() {
+        return options;
+    }
+
+    public long getCount() {
+        return cnt;
+    }
+
+    private boolean writeBatched(RowBatch batch) throws SQLException {
+        PreparedStatement pstmt = statementFor(1);
+        for(int row=0; row<batch.size(); row++) {
+            codec.bind(pstmt, batch, row);
+            pstmt.addBatch();
+        }
+        return succeeded(pstmt.executeBatch(), 1, options.isUpsert());
+    }
+
+    // full statements of rowsPerStatement rows go out as one JDBC batch, the trailing partial statement on its own
+    private boolean writeMultiRow(RowBatch batch) throws SQLException {
+        boolean ok = true;
+        int width = codec.width();
+        int full = batch.size() / rowsPerStatement;
+        int row = 0;
+        if(full > 0) {
+            PreparedStatement pstmt = statementFor(rowsPerStatement);
+            for(int s=0; s<full; s++) {
+                for(int r=0; r<rowsPerStatement; r++) {
+                    codec.bind(pstmt, batch, row++, r * width + 1);
+                }
+                pstmt.addBatch();
+            }
+            ok = succeeded(pstmt.executeBatch(), rowsPerStatement, options.isUpsert());
+        }
+        int remainder = batch.size() - row;
+        if(remainder > 0) {
+            PreparedStatement pstmt = remainderStatementFor(remainder);
+            for(int r=0; r<remainder; r++) {
+                codec.bind(pstmt, batch, row++, r * width + 1);
+            }
+            int result = pstmt.executeUpdate();
+            ok &= options.isUpsert() ? result >= 0 : result == remainder;
+        }
+        return ok;
+    }
+
+    private PreparedStatement statementFor(int rows) throws SQLException {
+        if(statement == null) {
+            statement = prepare(rows);
+        }
+        return statement;
+    }
+
+    // only the latest is kept, so adaptive batch sizes hold at most one extra statement open
+    private PreparedStatement remainderStatementFor(int rows) throws SQLException {
+        if(remainderStatement != null && remainderRows != rows) {
+            remainderStatement.close();
+            remainderStatement = null;
+        }
+        if(remainderStatement == null) {
+            remainderStatement = prepare(rows);
+            remainderRows = rows;
+        }
+        return remainderStatement;
+    }
+
+    private PreparedStatement prepare(int rows) throws SQLException {
+        String sql = options.isUpsert() ? TargetDatabase.upsertStatement(tableDef, dialect, rows) : TargetDatabase.insertStatement(tableDef, rows);
+        return connection.prepareStatement(sql);
+    }
+
+    // an upsert reports a driver specific count per row (MySQL counts an update twice and an unchanged row as zero)
+    private static boolean succeeded(int[] result, int rows, boolean upsert) {
+        for(int i : result) {
+            if(upsert ? i < 0 && i != Statement.SUCCESS_NO_INFO : i != rows && i != Statement.SUCCESS_NO_INFO) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if(!connection.getAutoCommit()) {
+                if(pendingBatches > 0) {
+                    connection.rollback();
+                }
+                connection.setAutoCommit(true);
+            }
+            if(referentialIntegrityDisabled) {
+                // a pooled connection would otherwise carry the setting to its next user
+                try(Statement st = connection.createStatement()) {
+                    st.execute(dialect.sessionReferentialIntegrityStatement(true).get());
+                }
+            }
+            connection.close();
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BatchWriter("+tableDef.getName()+", "+options+")";
+    }
+}
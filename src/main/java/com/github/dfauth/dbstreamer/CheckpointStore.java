@@ -0,0 +1,15 @@
+package com.github.dfauth.dbstreamer;
+
+import java.util.Map;
+import java.util.Optional;
+
+public interface CheckpointStore {
+
+    Optional<String> get(String key);
+
+    void put(String key, String value);
+
+    void remove(String key);
+
+    Map<String, String> entries(String prefix);
+}
@@ -0,0 +1,138 @@
+package com.github.dfauth.dbstreamer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+public class Chunk {
+
+    private final TableDefinition tableDef;
+    private final String id;
+    private final String predicate;
+    private final List<Object> parameters;
+
+    private Chunk(TableDefinition tableDef, String id, String predicate) {
+        this(tableDef, id, predicate, Collections.emptyList());
+    }
+
+    private Chunk(TableDefinition tableDef, String id, String predicate, List<Object> parameters) {
+        this.tableDef = tableDef;
+        this.id = id;
+        this.predicate = predicate;
+        this.parameters = parameters;
+    }
+
+    public static Chunk all(TableDefinition tableDef) {
+        return new Chunk(tableDef, "all", null);
+    }
+
+    public static Chunk range(TableDefinition tableDef, String column, Long lower, Long upper) {
+        String id = String.format("range:%s:%s:%s", column, lower == null ? "" : lower, upper == null ? "" : upper);
+        if(lower == null && upper == null) {
+            return new Chunk(tableDef, id, null);
+        } else if(lower == null) {
+            return new Chunk(tableDef, id, String.format("%s < %d", column, upper));
+        } else if(upper == null) {
+            return new Chunk(tableDef, id, String.format("%s >= %d", column, lower));
+        } else {
+            return new Chunk(tableDef, id, String.format("%s >= %d and %s < %d", column, lower, column, upper));
+        }
+    }
+
+    // the parts of a key range or, for a modulo chunk, the two residues of twice the modulus it covers.
+    // the supplied bounds place the cuts of an open ended range, whose outer parts stay open ended
+    public List<Chunk> split(int parts, long lower, long upper) {
+        String[] spec = id.split(":", -1);
+        List<Chunk> tmp = new ArrayList<>();
+        if(spec[0].equals("range")) {
+            long lo = spec[2].isEmpty() ? lower : Long.parseLong(spec[2]);
+            long hi = spec[3].isEmpty() ? upper : Long.parseLong(spec[3]);
+            // as an unsigned difference the span cannot overflow, and no offset within it can either
+            long span = hi - lo;
+            long step = Math.max(1, Long.divideUnsigned(span, parts));
+            long offset = 0;
+            for(int i=1; lo < hi && Long.compareUnsigned(offset, span) < 0; i++) {
+                long next = i == parts ? span : offset + step;
+                Long l = offset == 0 && spec[2].isEmpty() ? null : lo + offset;
+                Long u = next == span && spec[3].isEmpty() ? null : lo + next;
+                tmp.add(range(tableDef, spec[1], l, u));
+                offset = next;
+            }
+        } else if(spec[0].equals("mod")) {
+            int n = Integer.parseInt(spec[2]);
+            int i = Integer.parseInt(spec[3]);
+            tmp.add(modulo(tableDef, spec[1], 2 * n, i));
+            tmp.add(modulo(tableDef, spec[1], 2 * n, i + n));
+        }
+        return tmp;
+    }
+
+    public Optional<String> getKeyColumn() {
+        String[] spec = id.split(":", -1);
+        return spec[0].equals("range") || spec[0].equals("mod") ? Optional.of(spec[1]) : Optional.empty();
+    }
+
+    public static Chunk modulo(TableDefinition tableDef, String column, int n, int i) {
+        String id = String.format("mod:%s:%d:%d", column, n, i);
+        String predicate = String.format("ABS(MOD(%s, %d)) = %d", column, n, i);
+        if(i == 0) {
+            // rows with a null key have no residue; they travel with the first chunk
+            predicate = String.format("(%s or %s is null)", predicate, column);
+        }
+        return new Chunk(tableDef, id, predicate);
+    }
+
+    // the inverse of getId() for the unrestricted chunks created by the factories above
+    public static Chunk fromId(TableDefinition tableDef, String id) {
+        String[] parts = id.split(":", -1);
+        switch(parts[0]) {
+            case "all":
+                return all(tableDef);
+            case "range":
+                return range(tableDef, parts[1], parts[2].isEmpty() ? null : Long.valueOf(parts[2]), parts[3].isEmpty() ? null : Long.valueOf(parts[3]));
+            case "mod":
+                return modulo(tableDef, parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+            default:
+                throw new IllegalArgumentException("unrecognised chunk id "+id+" for "+tableDef.getName());
+        }
+    }
+
+    // narrows this chunk by a further predicate whose ? placeholders are bound to the given parameters, in order
+    public Chunk restrict(String label, String predicate, Object... parameters) {
+        List<Object> tmp = new ArrayList<>(this.parameters);
+        tmp.addAll(Arrays.asList(parameters));
+        String combined = this.predicate == null ? predicate : String.format("(%s) and (%s)", this.predicate, predicate);
+        return new Chunk(tableDef, id+"|"+label, combined, Collections.unmodifiableList(tmp));
+    }
+
+    public TableDefinition getTableDefinition() {
+        return tableDef;
+    }
+
+    public String getTable() {
+        return tableDef.getName();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getPredicate() {
+        return predicate;
+    }
+
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    public String getWhereClause() {
+        return predicate == null ? "" : " where "+predicate;
+    }
+
+    @Override
+    public String toString() {
+        return "Chunk("+tableDef.getName()+", "+id+")";
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+// durable per chunk progress of one table. the chunk plan is recorded with it, so a restarted run
+// splits the table exactly as the interrupted one did even though its key range may have grown since.
+// a finished table keeps only a done record, which the restarted run skips it on
+public class ChunkProgress {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkProgress.class);
+
+    public enum Status {
+        PENDING,
+        STARTED,
+        DONE
+    }
+
+    private final CheckpointStore store;
+    private final TableDefinition tableDef;
+
+    public ChunkProgress(CheckpointStore store, TableDefinition tableDef) {
+        this.store = store;
+        this.tableDef = tableDef;
+    }
+
+    // the plan is recorded one chunk per entry, followed by the chunk count. a count that does not match the
+    // entries found means the recording was interrupted, and the plan is made afresh
+    public Optional<List<Chunk>> plan() {
+        return store.get(planKey()).map(Integer::valueOf).flatMap(n -> {
+            List<Chunk> chunks = store.entries(planPrefix()).entrySet().stream()
+                    .sorted(Comparator.comparingInt(e -> Integer.parseInt(e.getKey().substring(planPrefix().length()))))
+                    .map(e -> Chunk.fromId(tableDef, e.getValue()))
+                    .collect(Collectors.toList());
+            return chunks.size() == n ? Optional.of(chunks) : Optional.<List<Chunk>>empty();
+        });
+    }
+
+    public List<Chunk> recordPlan(List<Chunk> chunks) {
+        removePlan();
+        for(int i=0; i<chunks.size(); i++) {
+            store.put(planPrefix()+i, chunks.get(i).getId());
+        }
+        store.put(planKey(), String.valueOf(chunks.size()));
+        return chunks;
+    }
+
+    public Status status(Chunk chunk) {
+        return store.get(keyOf(chunk)).map(Status::valueOf).orElse(Status.PENDING);
+    }
+
+    public void started(Chunk chunk) {
+        store.put(keyOf(chunk), Status.STARTED.name());
+    }
+
+    public void done(Chunk chunk) {
+        store.put(keyOf(chunk), Status.DONE.name());
+    }
+
+    public boolean isDone() {
+        return store.get(doneKey()).isPresent();
+    }
+
+    // the done record is written before the chunk records go, an interruption in between leaves the table done
+    public void done() {
+        store.put(doneKey(), Status.DONE.name());
+        store.entries(chunkPrefix()).keySet().forEach(store::remove);
+        removePlan();
+        logger.info(tableDef.getName()+" is done");
+    }
+
+    // only once the whole run has succeeded, until then a restart relies on the done record
+    public void clear() {
+        store.entries(chunkPrefix()).keySet().forEach(store::remove);
+        removePlan();
+        store.remove(doneKey());
+        logger.info("cleared chunk progress of "+tableDef.getName());
+    }
+
+    // the count goes first so a partly removed plan is never mistaken for a complete one
+    private void removePlan() {
+        store.remove(planKey());
+        store.entries(planPrefix()).keySet().forEach(store::remove);
+    }
+
+    private String planKey() {
+        return "plan:"+tableDef.getName();
+    }
+
+    private String planPrefix() {
+        return "planned:"+tableDef.getName()+":";
+    }
+
+    private String doneKey() {
+        return "done:"+tableDef.getName();
+    }
+
+    private String chunkPrefix() {
+        return "chunk:"+tableDef.getName()+":";
+    }
+
+    private String keyOf(Chunk chunk) {
+        return chunkPrefix()+chunk.getId();
+    }
+}
@@ -35,8 +35,12 @@ public class ColumnDefinition<T> {
     }
 
     public ColumnUpdate read(ResultSet rs) {
-        T val = dataType.getReadFunction(ord).apply(rs);
-        return new ColumnUpdate(this, val);
+        try {
+            return new ColumnUpdate(this, dataType.read(rs, ord));
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
     }
 
     public String getName() {
@@ -48,7 +52,7 @@ public class ColumnDefinition<T> {
             if(result == null) {
                 pstmt.setNull(i, dataType.sqlType());
             } else {
-                dataType.getWriteConsumer(pstmt, i).accept(result);
+                dataType.write(pstmt, i, result);
             }
         } catch (SQLException e) {
             logger.error(e.getMessage(), e);
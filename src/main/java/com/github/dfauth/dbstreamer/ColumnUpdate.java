@@ -21,6 +21,10 @@ public class ColumnUpdate<T> {
         getColumnDefinition().update(pstmt, i, result);
     }
 
+    public T getResult() {
+        return result;
+    }
+
     public ColumnDefinition getColumnDefinition() {
         return columnDefinition;
     }
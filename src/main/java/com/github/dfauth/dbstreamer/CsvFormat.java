@@ -0,0 +1,92 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * RFC 4180 style files with a header row of column names. An unquoted empty field is null, a quoted one ("") an
+ * empty string. Dates and timestamps are in JDBC escape format, blobs in hex.
+ *
+ * Quoted values are written with their line breaks as is, so by default a file is read whole. withSplitBytes reads
+ * it in parts split at line breaks instead, which is only safe for files with no line breaks inside quoted values;
+ * a part that starts inside one fails on its stray closing quote.
+ */
+public class CsvFormat implements FileFormat {
+
+    private static final Logger logger = LoggerFactory.getLogger(CsvFormat.class);
+
+    public static final CsvFormat DEFAULT = new CsvFormat(',', 0);
+
+    private final char delimiter;
+    private final long splitBytes;
+
+    private CsvFormat(char delimiter, long splitBytes) {
+        if(delimiter == '"' || delimiter == '\n' || delimiter == '\r' || delimiter > 0x7f) {
+            throw new IllegalArgumentException("unusable csv delimiter '"+delimiter+"'");
+        }
+        this.delimiter = delimiter;
+        this.splitBytes = splitBytes;
+    }
+
+    public CsvFormat withDelimiter(char delimiter) {
+        return new CsvFormat(delimiter, splitBytes);
+    }
+
+    public CsvFormat withSplitBytes(long splitBytes) {
+        return new CsvFormat(delimiter, splitBytes);
+    }
+
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    public long getSplitBytes() {
+        return splitBytes;
+    }
+
+    @Override
+    public String getSuffix() {
+        return delimiter == '\t' ? ".tsv" : ".csv";
+    }
+
+    @Override
+    public Subscriber<RowBatch> writerFor(Path file, TableDefinition tableDef, TableMetrics metrics, Consumer<Boolean> completionListener, Consumer<Throwable> exceptionListener) {
+        return new CsvWriter(file, tableDef, (byte) delimiter, metrics, completionListener, exceptionListener);
+    }
+
+    @Override
+    public List<Publisher<RowBatch>> readersFor(Path file, TableDefinition tableDef, int batchSize, Executor executor, TableMetrics metrics) {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+        CsvReader.checkHeader(file, tableDef, (byte) delimiter);
+        List<Publisher<RowBatch>> tmp = new ArrayList<>();
+        if(splitBytes <= 0 || size <= splitBytes) {
+            tmp.add(new CsvReader(file, 0, size, tableDef, (byte) delimiter, batchSize, executor, metrics));
+        } else {
+            for(long start = 0; start < size; start += splitBytes) {
+                tmp.add(new CsvReader(file, start, Math.min(size, start + splitBytes), tableDef, (byte) delimiter, batchSize, executor, metrics));
+            }
+        }
+        return tmp;
+    }
+
+    @Override
+    public String toString() {
+        return getSuffix().substring(1);
+    }
+}
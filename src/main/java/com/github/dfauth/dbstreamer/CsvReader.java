@@ -0,0 +1,359 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+// reads the rows of one part of a csv file, [start, end) in bytes. a part owns every row that starts inside it,
+// so it skips the partial line at its start and reads past its end to finish its last row
+public class CsvReader implements Publisher<RowBatch> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CsvReader.class);
+    private static final int BUFFER = 1 << 20;
+    private static final int EOF = -1;
+
+    private final Path path;
+    private final long start;
+    private final long end;
+    private final TableDefinition tableDef;
+    private final byte delimiter;
+    private final int batchSize;
+    private final Executor executor;
+    private final TableMetrics metrics;
+
+    public CsvReader(Path path, long start, long end, TableDefinition tableDef, byte delimiter, int batchSize, Executor executor, TableMetrics metrics) {
+        this.path = path;
+        this.start = start;
+        this.end = end;
+        this.tableDef = tableDef;
+        this.delimiter = delimiter;
+        this.batchSize = batchSize;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    static void checkHeader(Path path, TableDefinition tableDef, byte delimiter) {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Parser parser = new Parser(channel, 0, delimiter);
+            List<String> names = new ArrayList<>();
+            int terminator = delimiter;
+            while(terminator == delimiter) {
+                terminator = parser.field();
+                if(terminator == EOF && names.isEmpty() && parser.length == 0) {
+                    throw new IllegalStateException(path+" is empty, it has no header row");
+                }
+                names.add(parser.string());
+            }
+            List<String> expected = new ArrayList<>();
+            tableDef.getColumnDefs().forEach(cd -> expected.add(cd.getName()));
+            boolean ok = names.size() == expected.size();
+            for(int i=0; ok && i<names.size(); i++) {
+                ok = names.get(i).equalsIgnoreCase(expected.get(i));
+            }
+            if(!ok) {
+                throw new IllegalStateException("csv columns "+names+" of "+path+" do not match "+expected+" of "+tableDef.getName());
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super RowBatch> subscriber) {
+        subscriber.onSubscribe(new ReadCursor(this.toString(), subscriber, executor, cursor -> read(subscriber, cursor)));
+    }
+
+    private void read(Subscriber<? super RowBatch> subscriber, ReadCursor cursor) {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the header belongs to the first part, every other part starts after the first line break before it
+            Parser parser = new Parser(channel, start == 0 ? 0 : start - 1, delimiter);
+            parser.skipLine();
+            RowCodec codec = tableDef.getCodec();
+            boolean exhausted = false;
+            while(!exhausted && cursor.awaitDemand()) {
+                RowBatch batch = codec.newBatch(batchSize);
+                long t0 = System.nanoTime();
+                long from = parser.position();
+                while(!batch.isFull()) {
+                    if(parser.position() >= end || !readRow(parser, batch)) {
+                        exhausted = true;
+                        break;
+                    }
+                }
+                if(!batch.isEmpty()) {
+                    metrics.read(batch.size(), parser.position() - from, System.nanoTime() - t0);
+                    subscriber.onNext(batch);
+                }
+            }
+            if(cursor.isCancelled()) {
+                logger.info("read of "+this+" cancelled");
+            } else {
+                subscriber.onComplete();
+            }
+        } catch (Exception e) {
+            metrics.error();
+            logger.error(e.getMessage(), e);
+            subscriber.onError(e);
+        }
+    }
+
+    private boolean readRow(Parser parser, RowBatch batch) throws IOException, SQLException {
+        int b = parser.peek();
+        // a single column row holding null is written as an empty line, only wider tables can skip one
+        while(batch.width() > 1 && (b == '\n' || b == '\r')) {
+            parser.next();
+            b = parser.peek();
+        }
+        if(b == EOF) {
+            return false;
+        }
+        long rowStart = parser.position();
+        int row = batch.addRow();
+        int terminator = delimiter;
+        int col = 0;
+        while(terminator == delimiter) {
+            terminator = parser.field();
+            if(col == batch.width()) {
+                throw new IllegalStateException("malformed row at byte "+rowStart+" of "+path+", more than "+batch.width()+" fields");
+            }
+            setCell(parser, batch, col++, row);
+        }
+        if(col != batch.width()) {
+            throw new IllegalStateException("malformed row at byte "+rowStart+" of "+path+", "+col+" of "+batch.width()+" fields");
+        }
+        return true;
+    }
+
+    private static void setCell(Parser parser, RowBatch batch, int col, int row) throws SQLException {
+        // only a quoted empty string is an empty string, every other empty field is null
+        if(parser.length == 0 && (!parser.quoted || !isText(batch.getColumnDefinition(col).getDataType().sqlType()))) {
+            batch.setNull(col, row);
+            return;
+        }
+        switch(batch.kind(col)) {
+            case RowBatch.INT:
+                batch.setInt(col, row, Math.toIntExact(parser.longValue()));
+                return;
+            case RowBatch.LONG:
+                batch.setLong(col, row, parser.longValue());
+                return;
+            case RowBatch.DOUBLE:
+                batch.setDouble(col, row, Double.parseDouble(parser.ascii()));
+                return;
+            default:
+        }
+        int sqlType = batch.getColumnDefinition(col).getDataType().sqlType();
+        Object v;
+        switch(sqlType) {
+            case Types.VARCHAR:
+            case Types.CLOB:
+                v = parser.string();
+                break;
+            case Types.NUMERIC:
+                v = new BigDecimal(parser.ascii());
+                break;
+            case Types.DATE: {
+                String s = parser.ascii();
+                v = isSigned(s) ? java.sql.Date.valueOf(LocalDate.parse(s)) : java.sql.Date.valueOf(s);
+                break;
+            }
+            case Types.TIMESTAMP: {
+                String s = parser.ascii();
+                v = isSigned(s) ? Timestamp.valueOf(LocalDateTime.parse(s)) : Timestamp.valueOf(s);
+                break;
+            }
+            case Types.BOOLEAN: {
+                String s = parser.ascii();
+                v = s.equalsIgnoreCase("true") || s.equals("1");
+                break;
+            }
+            case Types.BIT:
+                v = (byte) parser.longValue();
+                break;
+            case Types.BLOB:
+                v = Lobs.blob(parser.hex());
+                break;
+            default:
+                throw new IllegalArgumentException("jdbc type "+sqlType+" cannot be read from csv");
+        }
+        batch.setObject(col, row, v);
+    }
+
+    private static boolean isText(int sqlType) {
+        return sqlType == Types.VARCHAR || sqlType == Types.CLOB;
+    }
+
+    // dates outside years 0 to 9999 are written in their iso form, the only one that starts with a sign
+    private static boolean isSigned(String s) {
+        return s.startsWith("+") || s.startsWith("-");
+    }
+
+    @Override
+    public String toString() {
+        return "CsvReader("+path+" ["+start+", "+end+"))";
+    }
+
+    // a buffered, byte at a time view of the channel from a given offset, unescaping one field at a time
+    private static class Parser {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+        private final byte delimiter;
+        private long offset;
+        private byte[] field = new byte[256];
+        private int length;
+        private boolean quoted;
+
+        private Parser(FileChannel channel, long offset, byte delimiter) {
+            this.channel = channel;
+            this.offset = offset;
+            this.delimiter = delimiter;
+            buffer.flip();
+        }
+
+        // the file offset of the next byte
+        private long position() {
+            return offset - buffer.remaining();
+        }
+
+        private int peek() throws IOException {
+            if(!buffer.hasRemaining()) {
+                buffer.clear();
+                int n = channel.read(buffer, offset);
+                buffer.flip();
+                if(n <= 0) {
+                    return EOF;
+                }
+                offset += n;
+            }
+            return buffer.get(buffer.position()) & 0xff;
+        }
+
+        private int next() throws IOException {
+            int b = peek();
+            if(b != EOF) {
+                buffer.get();
+            }
+            return b;
+        }
+
+        private void skipLine() throws IOException {
+            int b;
+            do {
+                b = next();
+            } while(b != '\n' && b != EOF);
+        }
+
+        private void append(int b) {
+            if(length == field.length) {
+                byte[] tmp = new byte[field.length * 2];
+                System.arraycopy(field, 0, tmp, 0, length);
+                field = tmp;
+            }
+            field[length++] = (byte) b;
+        }
+
+        // reads one field and returns what ended it: the delimiter, a line break or EOF
+        private int field() throws IOException {
+            length = 0;
+            quoted = peek() == '"';
+            int b;
+            if(quoted) {
+                next();
+                while(true) {
+                    b = next();
+                    if(b == EOF) {
+                        throw new IllegalStateException("unterminated quoted field before byte "+position());
+                    }
+                    if(b == '"') {
+                        if(peek() != '"') {
+                            break;
+                        }
+                        next();
+                    }
+                    append(b);
+                }
+                b = next();
+                if(b == '\r') {
+                    b = next();
+                }
+                if(b != delimiter && b != '\n' && b != EOF) {
+                    throw new IllegalStateException("unexpected '"+(char) b+"' after quoted field before byte "+position());
+                }
+                return b;
+            }
+            while(true) {
+                b = next();
+                if(b == '"') {
+                    // never written unquoted, a part split inside a quoted value meets the closing quote here
+                    throw new IllegalStateException("stray quote in unquoted field before byte "+position());
+                }
+                if(b == delimiter || b == '\n' || b == EOF) {
+                    if(b != delimiter && length > 0 && field[length - 1] == '\r') {
+                        length--;
+                    }
+                    return b;
+                }
+                append(b);
+            }
+        }
+
+        private String string() {
+            return new String(field, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private String ascii() {
+            return new String(field, 0, length, StandardCharsets.ISO_8859_1);
+        }
+
+        private long longValue() {
+            int i = 0;
+            boolean negative = false;
+            if(field[0] == '-' || field[0] == '+') {
+                negative = field[0] == '-';
+                i++;
+            }
+            if(i == length) {
+                throw new NumberFormatException("'"+ascii()+"' is not a number");
+            }
+            long v = 0;
+            for(; i<length; i++) {
+                int d = field[i] - '0';
+                if(d < 0 || d > 9) {
+                    throw new NumberFormatException("'"+ascii()+"' is not a number");
+                }
+                v = Math.addExact(Math.multiplyExact(v, 10), negative ? -d : d);
+            }
+            return v;
+        }
+
+        private byte[] hex() {
+            if((length & 1) != 0) {
+                throw new IllegalArgumentException("odd length hex value");
+            }
+            byte[] tmp = new byte[length / 2];
+            for(int i=0; i<tmp.length; i++) {
+                tmp[i] = (byte) ((Character.digit(field[2*i], 16) << 4) | Character.digit(field[2*i+1], 16));
+            }
+            return tmp;
+        }
+    }
+}
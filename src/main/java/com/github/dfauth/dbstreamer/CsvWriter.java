@@ -0,0 +1,317 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+// writes one chunk of a table as csv through a buffered channel. cells are encoded straight from the batch
+// columns into the buffer, integers and strings without an intermediate String
+public class CsvWriter implements Subscriber<RowBatch> {
+
+    private static final Logger logger = LoggerFactory.getLogger(CsvWriter.class);
+    private static final int BUFFER = 1 << 20;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final Path path;
+    private final Path tmp;
+    private final TableDefinition tableDef;
+    private final byte delimiter;
+    private final TableMetrics metrics;
+    private final Consumer<Boolean> completionListener;
+    private final Consumer<Throwable> exceptionListener;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+    private final byte[] digits = new byte[20];
+    private Subscription subscription;
+    private FileChannel channel;
+    private long cnt = 0;
+    private long written = 0;
+    private boolean failed = false;
+
+    public CsvWriter(Path path, TableDefinition tableDef, byte delimiter, TableMetrics metrics, Consumer<Boolean> completionListener, Consumer<Throwable> exceptionListener) {
+        this.path = path;
+        this.tmp = path.resolveSibling(path.getFileName()+".tmp");
+        this.tableDef = tableDef;
+        this.delimiter = delimiter;
+        this.metrics = metrics;
+        this.completionListener = completionListener;
+        this.exceptionListener = exceptionListener;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        subscription = s;
+        try {
+            channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            boolean first = true;
+            for(ColumnDefinition cd : tableDef.getColumnDefs()) {
+                if(!first) {
+                    put(delimiter);
+                }
+                putString(cd.getName());
+                first = false;
+            }
+            put((byte) '\n');
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            subscription.cancel();
+            fail(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(RowBatch batch) {
+        if(failed) {
+            return;
+        }
+        long start = System.nanoTime();
+        long before = written + buffer.position();
+        try {
+            for(int row=0; row<batch.size(); row++) {
+                for(int col=0; col<batch.width(); col++) {
+                    if(col > 0) {
+                        put(delimiter);
+                    }
+                    if(!batch.isNull(col, row)) {
+                        putCell(batch, col, row);
+                    }
+                }
+                put((byte) '\n');
+            }
+            cnt += batch.size();
+            metrics.written(batch.size(), written + buffer.position() - before, System.nanoTime() - start);
+        } catch (IOException | SQLException | RuntimeException e) {
+            logger.error(e.getMessage(), e);
+            metrics.error();
+            subscription.cancel();
+            fail(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    private void putCell(RowBatch batch, int col, int row) throws IOException, SQLException {
+        switch(batch.kind(col)) {
+            case RowBatch.INT:
+                putLong(batch.getInt(col, row));
+                return;
+            case RowBatch.LONG:
+                putLong(batch.getLong(col, row));
+                return;
+            case RowBatch.DOUBLE:
+                putAscii(Double.toString(batch.getDouble(col, row)));
+                return;
+            default:
+        }
+        Object v = batch.getObject(col, row);
+        switch(batch.getColumnDefinition(col).getDataType().sqlType()) {
+            case Types.VARCHAR:
+            case Types.CLOB:
+                putString(v.toString());
+                break;
+            case Types.NUMERIC:
+                putAscii(((BigDecimal) v).toPlainString());
+                break;
+            case Types.DATE: {
+                LocalDate d = ((java.sql.Date) v).toLocalDate();
+                if(!isFourDigitYear(d.getYear())) {
+                    putAscii(d.toString());
+                    break;
+                }
+                putDate(d.getYear(), d.getMonthValue(), d.getDayOfMonth());
+                break;
+            }
+            case Types.TIMESTAMP: {
+                LocalDateTime t = ((Timestamp) v).toLocalDateTime();
+                if(!isFourDigitYear(t.getYear())) {
+                    putAscii(t.toString());
+                    break;
+                }
+                putDate(t.getYear(), t.getMonthValue(), t.getDayOfMonth());
+                put((byte) ' ');
+                putPadded(t.getHour(), 2);
+                put((byte) ':');
+                putPadded(t.getMinute(), 2);
+                put((byte) ':');
+                putPadded(t.getSecond(), 2);
+                put((byte) '.');
+                putPadded(t.getNano(), 9);
+                break;
+            }
+            case Types.BOOLEAN:
+                putAscii(((Boolean) v) ? "true" : "false");
+                break;
+            case Types.BIT:
+                putLong((Byte) v);
+                break;
+            case Types.BLOB: {
+                Blob blob = (Blob) v;
+                for(byte b : blob.getBytes(1, Math.toIntExact(blob.length()))) {
+                    put(HEX[(b >> 4) & 0xf]);
+                    put(HEX[b & 0xf]);
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("jdbc type "+batch.getColumnDefinition(col).getDataType().sqlType()+" cannot be written as csv");
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if(!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    private void putAscii(String s) throws IOException {
+        for(int i=0; i<s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+    private void putLong(long v) throws IOException {
+        if(v == Long.MIN_VALUE) {
+            putAscii(Long.toString(v));
+            return;
+        }
+        if(v < 0) {
+            put((byte) '-');
+            v = -v;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while(v != 0);
+        while(n > 0) {
+            put(digits[--n]);
+        }
+    }
+
+    private void putPadded(int v, int width) throws IOException {
+        for(int i=width-1; i>=0; i--) {
+            digits[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        for(int i=0; i<width; i++) {
+            put(digits[i]);
+        }
+    }
+
+    // the padded form has room for years 0 to 9999, any other is written in its iso form, which carries a sign
+    private static boolean isFourDigitYear(int year) {
+        return year >= 0 && year <= 9999;
+    }
+
+    private void putDate(int year, int month, int day) throws IOException {
+        putPadded(year, 4);
+        put((byte) '-');
+        putPadded(month, 2);
+        put((byte) '-');
+        putPadded(day, 2);
+    }
+
+    // quoted only when it has to be, the empty string always is so that it reads back as other than null
+    private void putString(String s) throws IOException {
+        boolean quote = s.isEmpty();
+        for(int i=0; !quote && i<s.length(); i++) {
+            char c = s.charAt(i);
+            quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+        if(quote) {
+            put((byte) '"');
+        }
+        for(int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if(c < 0x80) {
+                if(c == '"') {
+                    put((byte) '"');
+                }
+                put((byte) c);
+            } else if(c < 0x800) {
+                put((byte) (0xc0 | (c >> 6)));
+                put((byte) (0x80 | (c & 0x3f)));
+            } else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                put((byte) (0xf0 | (cp >> 18)));
+                put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                put((byte) (0x80 | (cp & 0x3f)));
+            } else {
+                put((byte) (0xe0 | (c >> 12)));
+                put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        if(quote) {
+            put((byte) '"');
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        written += buffer.remaining();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        logger.error("onError("+t+")");
+        if(!failed) {
+            fail(t);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if(failed) {
+            return;
+        }
+        try {
+            flush();
+            channel.force(true);
+            channel.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("onComplete: "+path+" cnt: "+cnt);
+            completionListener.accept(true);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable t) {
+        failed = true;
+        try {
+            if(channel != null) {
+                channel.close();
+            }
+            Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+        exceptionListener.accept(t);
+    }
+}
@@ -3,8 +3,12 @@ package com.github.dfauth.dbstreamer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -14,9 +18,29 @@ import java.util.stream.Stream;
 
 public interface DataType<R> {
 
-    Consumer<R> getWriteConsumer(PreparedStatement pstmt, int i);
+    R read(ResultSet rs, int ord) throws SQLException;
 
-    Function<ResultSet, R> getReadFunction(int ord);
+    void write(PreparedStatement pstmt, int i, R v) throws SQLException;
+
+    default Consumer<R> getWriteConsumer(PreparedStatement pstmt, int i) {
+        return v -> {
+            try {
+                write(pstmt, i, v);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    default Function<ResultSet, R> getReadFunction(int ord) {
+        return rs -> {
+            try {
+                return read(rs, ord);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
 
     int sqlType();
 
@@ -29,27 +53,13 @@ public interface DataType<R> {
             public DataType<String> create() {
                 return new DataTypeImpl<String>(Types.VARCHAR) {
                     @Override
-                    public Consumer<String> getWriteConsumer(PreparedStatement pstmt, int i) {
-                        return v -> {
-                            try {
-                                pstmt.setString(i, v);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public void write(PreparedStatement pstmt, int i, String v) throws SQLException {
+                        pstmt.setString(i, v);
                     }
 
                     @Override
-                    public Function<ResultSet, String> getReadFunction(int ord) {
-                        return rs -> {
-                            try {
-                                return rs.getString(ord);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public String read(ResultSet rs, int ord) throws SQLException {
+                        return rs.getString(ord);
                     }
                 };
             }
@@ -60,94 +70,91 @@ public interface DataType<R> {
             public DataType<Integer> create() {
                 return new DataTypeImpl<Integer>(Types.INTEGER) {
                     @Override
-                    public Consumer<Integer> getWriteConsumer(PreparedStatement pstmt, int i) {
-                        return v -> {
-                            try {
-                                pstmt.setInt(i, v);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public void write(PreparedStatement pstmt, int i, Integer v) throws SQLException {
+                        pstmt.setInt(i, v);
                     }
 
                     @Override
-                    public Function<ResultSet, Integer> getReadFunction(int ord) {
-                        return rs -> {
-                            try {
-                                int result = rs.getInt(ord);
-                                if(rs.wasNull()) {
-                                    return null;
-                                } else {
-                                    return result;
-                                }
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public Integer read(ResultSet rs, int ord) throws SQLException {
+                        int result = rs.getInt(ord);
+                        if(rs.wasNull()) {
+                            return null;
+                        } else {
+                            return result;
+                        }
                     }
                 };
             }
         };
 
-        public static final Factory BIGDECIMAL_FACTORY = new Factory(BigDecimal.class, "bigint") {
+        public static final Factory LONG_FACTORY = new Factory(Long.class, "bigint") {
+            @Override
+            public DataType<Long> create() {
+                return new DataTypeImpl<Long>(Types.BIGINT) {
+                    @Override
+                    public void write(PreparedStatement pstmt, int i, Long v) throws SQLException {
+                        pstmt.setLong(i, v);
+                    }
+
+                    @Override
+                    public Long read(ResultSet rs, int ord) throws SQLException {
+                        long result = rs.getLong(ord);
+                        if(rs.wasNull()) {
+                            return null;
+                        } else {
+                            return result;
+                        }
+                    }
+                };
+            }
+        };
+
+        public static final Factory BIGDECIMAL_FACTORY = new Factory(BigDecimal.class, "numeric", "decimal") {
             @Override
             public DataType<BigDecimal> create() {
-                return new DataTypeImpl<BigDecimal>(Types.BIGINT) {
+                return new DataTypeImpl<BigDecimal>(Types.NUMERIC) {
                     @Override
-                    public Consumer<BigDecimal> getWriteConsumer(PreparedStatement pstmt, int i) {
-                        return v -> {
-                            try {
-                                pstmt.setBigDecimal(i, v);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public void write(PreparedStatement pstmt, int i, BigDecimal v) throws SQLException {
+                        pstmt.setBigDecimal(i, v);
                     }
 
                     @Override
-                    public Function<ResultSet, BigDecimal> getReadFunction(int ord) {
-                        return rs -> {
-                            try {
-                                return rs.getBigDecimal(ord);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public BigDecimal read(ResultSet rs, int ord) throws SQLException {
+                        return rs.getBigDecimal(ord);
                     }
                 };
             }
         };
 
-        public static final Factory BLOB_FACTORY = new Factory(Blob.class, "BINARY LARGE OBJECT") {
+        public static final Factory BLOB_FACTORY = new Factory(Blob.class, "BINARY LARGE OBJECT", "blob") {
             @Override
             public DataType<Blob> create() {
                 return new DataTypeImpl<Blob>(Types.BLOB) {
                     @Override
-                    public Consumer<Blob> getWriteConsumer(PreparedStatement pstmt, int i) {
-                        return v -> {
-                            try {
-                                pstmt.setBlob(i, v);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public void write(PreparedStatement pstmt, int i, Blob v) throws SQLException {
+                        pstmt.setBinaryStream(i, v.getBinaryStream(), v.length());
+                    }
+
+                    @Override
+                    public Blob read(ResultSet rs, int ord) throws SQLException {
+                        return Lobs.readBlob(rs.getBinaryStream(ord));
+                    }
+                };
+            }
+        };
+
+        public static final Factory CLOB_FACTORY = new Factory(String.class, "CHARACTER LARGE OBJECT", "clob") {
+            @Override
+            public DataType<String> create() {
+                return new DataTypeImpl<String>(Types.CLOB) {
+                    @Override
+                    public void write(PreparedStatement pstmt, int i, String v) throws SQLException {
+                        pstmt.setCharacterStream(i, new StringReader(v), v.length());
                     }
 
                     @Override
-                    public Function<ResultSet, Blob> getReadFunction(int ord) {
-                        return rs -> {
-                            try {
-                                return rs.getBlob(ord);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public String read(ResultSet rs, int ord) throws SQLException {
+                        return Lobs.readClob(rs.getCharacterStream(ord));
                     }
                 };
             }
@@ -158,63 +165,35 @@ public interface DataType<R> {
             public DataType<Date> create() {
                 return new DataTypeImpl<Date>(Types.DATE) {
                     @Override
-                    public Consumer<Date> getWriteConsumer(PreparedStatement pstmt, int i) {
-                        return v -> {
-                            try {
-                                pstmt.setDate(i, v);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public void write(PreparedStatement pstmt, int i, Date v) throws SQLException {
+                        pstmt.setDate(i, v);
                     }
 
                     @Override
-                    public Function<ResultSet, Date> getReadFunction(int ord) {
-                        return rs -> {
-                            try {
-                                return rs.getDate(ord);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public Date read(ResultSet rs, int ord) throws SQLException {
+                        return rs.getDate(ord);
                     }
                 };
             }
         };
 
-        public static final Factory DOUBLE_FACTORY = new Factory(Double.class, "double precision","decimal") {
+        public static final Factory DOUBLE_FACTORY = new Factory(Double.class, "double precision") {
             @Override
             public DataType<Double> create() {
                 return new DataTypeImpl<Double>(Types.DOUBLE) {
                     @Override
-                    public Consumer<Double> getWriteConsumer(PreparedStatement pstmt, int i) {
-                        return v -> {
-                            try {
-                                pstmt.setDouble(i, v);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public void write(PreparedStatement pstmt, int i, Double v) throws SQLException {
+                        pstmt.setDouble(i, v);
                     }
 
                     @Override
-                    public Function<ResultSet, Double> getReadFunction(int ord) {
-                        return rs -> {
-                            try {
-                                double result = rs.getDouble(ord);
-                                if(rs.wasNull()) {
-                                    return null;
-                                } else {
-                                    return result;
-                                }
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public Double read(ResultSet rs, int ord) throws SQLException {
+                        double result = rs.getDouble(ord);
+                        if(rs.wasNull()) {
+                            return null;
+                        } else {
+                            return result;
+                        }
                     }
                 };
             }
@@ -225,27 +204,13 @@ public interface DataType<R> {
             public DataType<Timestamp> create() {
                 return new DataTypeImpl<Timestamp>(Types.TIMESTAMP) {
                     @Override
-                    public Consumer<Timestamp> getWriteConsumer(PreparedStatement pstmt, int i) {
-                        return v -> {
-                            try {
-                                pstmt.setTimestamp(i, v);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public void write(PreparedStatement pstmt, int i, Timestamp v) throws SQLException {
+                        pstmt.setTimestamp(i, v);
                     }
 
                     @Override
-                    public Function<ResultSet, Timestamp> getReadFunction(int ord) {
-                        return rs -> {
-                            try {
-                                return rs.getTimestamp(ord);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public Timestamp read(ResultSet rs, int ord) throws SQLException {
+                        return rs.getTimestamp(ord);
                     }
                 };
             }
@@ -254,34 +219,20 @@ public interface DataType<R> {
         public static final Factory BOOLEAN_FACTORY = new Factory(Boolean.class, "boolean") {
             @Override
             public DataType<Boolean> create() {
-                return new DataTypeImpl<Boolean>(Types.TIMESTAMP) {
+                return new DataTypeImpl<Boolean>(Types.BOOLEAN) {
                     @Override
-                    public Consumer<Boolean> getWriteConsumer(PreparedStatement pstmt, int i) {
-                        return v -> {
-                            try {
-                                pstmt.setBoolean(i, v);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public void write(PreparedStatement pstmt, int i, Boolean v) throws SQLException {
+                        pstmt.setBoolean(i, v);
                     }
 
                     @Override
-                    public Function<ResultSet, Boolean> getReadFunction(int ord) {
-                        return rs -> {
-                            try {
-                                boolean result = rs.getBoolean(ord);
-                                if(rs.wasNull()) {
-                                    return null;
-                                } else {
-                                    return result;
-                                }
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public Boolean read(ResultSet rs, int ord) throws SQLException {
+                        boolean result = rs.getBoolean(ord);
+                        if(rs.wasNull()) {
+                            return null;
+                        } else {
+                            return result;
+                        }
                     }
                 };
             }
@@ -292,32 +243,18 @@ public interface DataType<R> {
             public DataType<Byte> create() {
                 return new DataTypeImpl<Byte>(Types.BIT) {
                     @Override
-                    public Consumer<Byte> getWriteConsumer(PreparedStatement pstmt, int i) {
-                        return v -> {
-                            try {
-                                pstmt.setByte(i, v);
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public void write(PreparedStatement pstmt, int i, Byte v) throws SQLException {
+                        pstmt.setByte(i, v);
                     }
 
                     @Override
-                    public Function<ResultSet, Byte> getReadFunction(int ord) {
-                        return rs -> {
-                            try {
-                                byte result = rs.getByte(ord);
-                                if(rs.wasNull()) {
-                                    return null;
-                                } else {
-                                    return result;
-                                }
-                            } catch (SQLException e) {
-                                logger.error(e.getMessage(), e);
-                                throw new RuntimeException(e);
-                            }
-                        };
+                    public Byte read(ResultSet rs, int ord) throws SQLException {
+                        byte result = rs.getByte(ord);
+                        if(rs.wasNull()) {
+                            return null;
+                        } else {
+                            return result;
+                        }
                     }
                 };
             }
@@ -325,9 +262,11 @@ public interface DataType<R> {
 
         public static final Factory[] values = new Factory[]{VARCHAR_FACTORY,
                 INTEGER_FACTORY,
+                LONG_FACTORY,
                 BIGDECIMAL_FACTORY,
                 DATE_FACTORY,
                 BLOB_FACTORY,
+                CLOB_FACTORY,
         DOUBLE_FACTORY,
         TIMESTAMP_FACTORY,
         BOOLEAN_FACTORY,
@@ -341,13 +280,59 @@ public interface DataType<R> {
             this.clazz = clazz;
         }
 
+        private static final Map<String, Factory> byAlias = new HashMap<>();
+        private static final Map<Integer, Factory> byJdbcType = new HashMap<>();
+
+        static {
+            for(Factory f : values) {
+                for(Object alias : f.aliases) {
+                    byAlias.putIfAbsent((String) alias, f);
+                }
+                byJdbcType.putIfAbsent(f.create().sqlType(), f);
+            }
+        }
+
         public static Factory findBySqlType(String sqlDataType) {
-            return Stream.of(values)
-                    .filter(v -> v.aliases.contains(sqlDataType.toUpperCase()))
-                    .findFirst()
+            return Optional.ofNullable(byAlias.get(sqlDataType.toUpperCase()))
                     .orElseThrow(() -> new IllegalArgumentException("Unknown or unsupported sql type: "+sqlDataType));
         }
 
+        public static Factory findByJdbcType(int jdbcType) {
+            return Optional.ofNullable(byJdbcType.get(jdbcType))
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown or unsupported jdbc type: "+jdbcType));
+        }
+
+        // the type of a column as DatabaseMetaData.getColumns reports it. close relatives share the factory of the wider
+        // type, which reads every value of the narrower one without loss; decimal in particular keeps its exact value
+        // rather than passing through a double. any other type is found by name, then by its exact jdbc type
+        public static Factory findByColumnType(int jdbcType, String typeName) {
+            switch(jdbcType) {
+                case Types.CHAR:
+                case Types.NCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.LONGNVARCHAR:
+                    return VARCHAR_FACTORY;
+                case Types.SMALLINT:
+                case Types.TINYINT:
+                    return INTEGER_FACTORY;
+                case Types.DECIMAL:
+                    return BIGDECIMAL_FACTORY;
+                case Types.FLOAT:
+                case Types.REAL:
+                    return DOUBLE_FACTORY;
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                    return BLOB_FACTORY;
+                case Types.NCLOB:
+                    return CLOB_FACTORY;
+                default:
+                    Factory f = byAlias.get(typeName.toUpperCase());
+                    return f != null ? f : findByJdbcType(jdbcType);
+            }
+        }
+
         public abstract DataType<R> create();
     }
 }
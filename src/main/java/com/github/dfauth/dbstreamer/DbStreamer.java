@@ -8,8 +8,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.*;
 import java.util.stream.Collectors;
 
@@ -20,14 +24,35 @@ public class DbStreamer {
     private final DataSource target;
     private Predicate<String> excludedTables = t -> false; //t -> !excludedTableList().contains(t);
     private Predicate<String> includedTables = t -> true;
-    private BlockingQueue<TableDefinition> inQueue = new LinkedBlockingQueue<>();
-    private BlockingQueue<Boolean> outQueue = new LinkedBlockingQueue<>();
-    private boolean shouldContinue = true;
     private TargetDatabase targetdB;
-    private int batchSize = 10000;
+    private int batchSize = SourceDatabase.DEFAULT_BATCH_SIZE;
     private BiFunction<String, ColumnDefinition, ColumnDefinition> bf = (t, cd) -> cd;
-    private Function<String, UnaryOperator<ColumnUpdate>> ff = t -> UnaryOperator.identity();
+    // null for a table that is copied untransformed
+    private Function<String, UnaryOperator<ColumnUpdate>> ff = t -> null;
     private SourceDatabase sourcedB;
+    private Function<String, Integer> chunks = t -> 1;
+    private int tableParallelism = ExecutionEngine.DEFAULT_TABLE_PARALLELISM;
+    private int ioThreads = 0;
+    private int chunksInFlight = ExecutionEngine.DEFAULT_CHUNKS_IN_FLIGHT;
+    private ExecutionEngine engine;
+    // table order honours foreign keys between tables, but not within one, nor around a cycle
+    private Predicate<DependencyGraph> disableReferentialIntegrityChecks = g -> g.hasCycles() || g.hasSelfReferences();
+    private ToLongFunction<TableDefinition> costEstimator = td -> sourcedB.estimateRows(td.getName());
+    private Function<String, Double> weights = t -> 1.0;
+    private Function<String, ReadOptions> readOptions = t -> ReadOptions.DEFAULT;
+    private Function<String, WriteOptions> writeOptions = t -> WriteOptions.DEFAULT;
+    private Function<Integer, BatchSizeController> batchSizeController = BatchSizeController::fixed;
+    private Function<String, String> incremental = t -> null;
+    private CheckpointStore checkpointStore;
+    private boolean resumable = false;
+    private int differential = 0;
+    private final Map<String, Set<List<Object>>> orphans = new ConcurrentHashMap<>();
+    private Verifier verifier;
+    private Metrics metrics = Metrics.platform();
+    private Path spillDirectory;
+    private long spillWatermark = SpillBuffer.DEFAULT_WATERMARK;
+    private final AtomicLong spillHeap = new AtomicLong();
+    private long maxSpillBytes = Long.MAX_VALUE;
 
     public DbStreamer(DataSource source, DataSource target) {
         this.source = source;
@@ -41,14 +66,31 @@ public class DbStreamer {
     }
 
     public void sniff(Consumer<TableDefinition> consumer) {
-        sourcedB = new SourceDatabase(this.source);
-        targetdB = new TargetDatabase(this.target);
-        targetdB.tables().stream()
+        start();
+        try {
+            describe(targetdB, consumer);
+        } finally {
+            engine.close();
+        }
+    }
+
+    private void start() {
+        if(engine != null) {
+            engine.close();
+        }
+        engine = new ExecutionEngine(tableParallelism, ioThreads > 0 ? ioThreads : ExecutionEngine.ioThreadsFor(tableParallelism, chunksInFlight, 1));
+        sourcedB = new SourceDatabase(this.source, engine.getIoExecutor(), metrics);
+        targetdB = new TargetDatabase(this.target, engine.getIoExecutor(), metrics);
+    }
+
+    private void describe(AbstractDatabase db, Consumer<TableDefinition> consumer) {
+        db.tables().stream()
+                .filter(t -> !t.equalsIgnoreCase(TableCheckpointStore.TABLE))
                 .filter(excludedTables.negate())
                 .filter(includedTables)
                 .forEach(t -> {
-            SortedSet<ColumnDefinition> columns = targetdB.columnDefs(t).stream().map(cd -> bf.apply(t, cd)).collect(Collectors.toCollection((() -> new TreeSet<>(ColumnDefinition.comparator))));
-            TableDefinition td = new TableDefinition(t, columns);
+            SortedSet<ColumnDefinition> columns = db.columnDefs(t).stream().map(cd -> bf.apply(t, cd)).collect(Collectors.toCollection((() -> new TreeSet<>(ColumnDefinition.comparator))));
+            TableDefinition td = new TableDefinition(t, columns, db.primaryKey(t), db.referencedTables(t));
             logger.info("compiled table definition "+td);
             consumer.accept(td);
         });
@@ -59,84 +101,359 @@ public class DbStreamer {
     }
 
     public void stream(Consumer<TableDefinition> consumer) {
-        sniff(td -> {
-            try {
-                enqueue(td);
-                consumer.accept(td);
-            } catch(RuntimeException e) {
-                logger.error(e.getMessage(), e);
+        List<TableDefinition> tables = new ArrayList<>();
+        start();
+        try {
+            describe(targetdB, td -> {
+                try {
+                    tables.add(td);
+                    consumer.accept(td);
+                } catch(RuntimeException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            });
+        } catch(RuntimeException e) {
+            engine.close();
+            throw e;
+        }
+        if(tables.isEmpty()) {
+            engine.close();
+            return;
+        }
+        DependencyGraph graph = new DependencyGraph(tables);
+        reserveWriterThreads(tables);
+        logger.info("streaming "+tables.size()+" tables with table parallelism "+engine.getTableParallelism());
+        List<String> names = tables.stream().map(TableDefinition::getName).collect(Collectors.toList());
+        boolean disableChecks = false;
+        try {
+            checkIncremental(tables);
+            if(disableReferentialIntegrityChecks.test(graph)) {
+                disableChecks = targetdB.disableReferentialIntegrityChecks(names);
             }
-        });
-        if(!inQueue.isEmpty()) {
-            logger.info("queue depth "+ inQueue.size());
-            try {
-                targetdB.disableReferentialIntegrityChecks();
-                sleep();
-                int qSize = inQueue.size();
-                processAsync();
-                while(!inQueue.isEmpty()) {
-                    sleep();
-                    logger.info("awoke, queue depth "+ inQueue.size());
+            if(differential > 0) {
+                verifier = new Verifier(sourcedB, targetdB, tableParallelism);
+                orphans.clear();
+            }
+            engine.run(graph, this::estimateCost, td -> failIfIncomplete(td, processTableDefinition(td))).join();
+            if(differential > 0) {
+                removeOrphans(graph);
+            }
+            // a failed run keeps every done record, so its restart skips the tables already copied
+            tables.forEach(td -> progressFor(td).ifPresent(ChunkProgress::clear));
+            tables.forEach(td -> logger.info(metrics.forTable(td.getName()).toString()));
+        } catch (CompletionException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if(disableChecks) {
+                targetdB.enableReferentialIntegrityChecks(names);
+            }
+            if(verifier != null) {
+                verifier.close();
+                verifier = null;
+            }
+            engine.close();
+        }
+    }
+
+    // writes every table to segment files under dir, which importFrom can later load into any number of targets
+    public void exportTo(Path dir) {
+        exportTo(dir, FileFormat.SEGMENT);
+    }
+
+    public void exportTo(Path dir, FileFormat format) {
+        start();
+        List<TableDefinition> tables = new ArrayList<>();
+        try {
+            describe(sourcedB, tables::add);
+            Files.createDirectories(dir);
+            logger.info("exporting "+tables.size()+" tables to "+dir+" as "+format);
+            engine.run(tables, td -> exportTableDefinition(td, dir, format)).join();
+            tables.forEach(td -> logger.info(metrics.forTable(td.getName()).toString()));
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } catch (CompletionException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e.getCause());
+        } finally {
+            engine.close();
+        }
+    }
+
+    // loads the segment files under dir into the target tables of the same name, in dependency order
+    public void importFrom(Path dir) {
+        importFrom(dir, FileFormat.SEGMENT);
+    }
+
+    public void importFrom(Path dir, FileFormat format) {
+        start();
+        List<TableDefinition> tables = new ArrayList<>();
+        try {
+            describe(targetdB, td -> {
+                if(format.filesFor(dir, td.getName()).isEmpty()) {
+                    logger.warn("no "+format+" files for "+td.getName()+" in "+dir);
+                } else {
+                    tables.add(td);
                 }
-                logger.info("queue depth "+ inQueue.size()+" stopping... ");
-                stop();
-                waitForWorkerCompletion(qSize);
-            } catch (InterruptedException e) {
-                logger.error(e.getMessage(), e);
-                throw new RuntimeException(e);
-            } finally {
-                targetdB.enableReferentialIntegrityChecks();
+            });
+        } catch(RuntimeException e) {
+            engine.close();
+            throw e;
+        }
+        if(tables.isEmpty()) {
+            engine.close();
+            return;
+        }
+        DependencyGraph graph = new DependencyGraph(tables);
+        reserveWriterThreads(tables);
+        logger.info("importing "+tables.size()+" tables from "+dir+" as "+format);
+        List<String> names = tables.stream().map(TableDefinition::getName).collect(Collectors.toList());
+        boolean disableChecks = false;
+        try {
+            if(disableReferentialIntegrityChecks.test(graph)) {
+                disableChecks = targetdB.disableReferentialIntegrityChecks(names);
             }
+            engine.run(graph, td -> format.filesFor(dir, td.getName()).stream().mapToLong(this::sizeOf).sum(), td -> failIfIncomplete(td, importTableDefinition(td, dir, format))).join();
+            tables.forEach(td -> logger.info(metrics.forTable(td.getName()).toString()));
+        } catch (CompletionException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if(disableChecks) {
+                targetdB.enableReferentialIntegrityChecks(names);
+            }
+            engine.close();
+        }
+    }
+
+    // fanned out writers hold io threads of their own, so the default limit grows to cover the widest table
+    private void reserveWriterThreads(List<TableDefinition> tables) {
+        if(ioThreads == 0) {
+            int writers = tables.stream().mapToInt(td -> writeOptions.apply(td.getName()).getWriters()).max().orElse(1);
+            engine.ensureIoThreads(ExecutionEngine.ioThreadsFor(tableParallelism, chunksInFlight, writers));
         }
     }
 
-    private void sleep() {
+    private long sizeOf(Path path) {
         try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
+            return Files.size(path);
+        } catch (IOException e) {
             logger.error(e.getMessage(), e);
             throw new RuntimeException(e);
         }
     }
 
-    private void stop() {
-        shouldContinue = false;
+    public List<Verifier.Mismatch> verify() {
+        return verify(Verifier.DEFAULT_RANGES);
     }
 
-    private void processAsync() {
-        ExecutorService executors = ForkJoinPool.commonPool();
+    public List<Verifier.Mismatch> verify(int ranges) {
+        List<TableDefinition> tables = sniff();
+        try(Verifier verifier = new Verifier(sourcedB, targetdB, tableParallelism)) {
+            return verifier.verify(tables, t -> ranges);
+        }
+    }
 
-        while(inQueue.size() > 0) {
-            executors.submit(() -> {
-                try {
-                    while(shouldContinue) {
-                        TableDefinition tableDef = inQueue.poll(1, TimeUnit.SECONDS);
-                        if(tableDef != null) {
-                            processTableDefinition(tableDef).thenApply(outQueue::offer);
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    logger.error(e.getMessage(), e);
-                    throw new RuntimeException(e);
+    private double estimateCost(TableDefinition td) {
+        try {
+            return costEstimator.applyAsLong(td) * weights.apply(td.getName());
+        } catch (RuntimeException e) {
+            logger.warn("unable to estimate the cost of "+td+", scheduling it as if empty: "+e.getMessage());
+            return 0;
+        }
+    }
+
+    private CompletableFuture<Boolean> processTableDefinition(TableDefinition tableDefinition) {
+        if(differential > 0) {
+            return processDifferences(tableDefinition);
+        }
+        Optional<ChunkProgress> progress = progressFor(tableDefinition);
+        if(progress.isPresent() && progress.get().isDone()) {
+            logger.info("skipping "+tableDefinition.getName()+", completed by an earlier run");
+            return CompletableFuture.completedFuture(true);
+        }
+        List<Chunk> tmp = progress.flatMap(ChunkProgress::plan).orElseGet(() -> {
+            List<Chunk> plan = sourcedB.chunksFor(tableDefinition, chunks.apply(tableDefinition.getName()));
+            return progress.map(p -> p.recordPlan(plan)).orElse(plan);
+        });
+        Optional<HighWaterMark> hwm = highWaterMarkFor(tableDefinition);
+        WriteOptions options = writeOptions.apply(tableDefinition.getName());
+        if(hwm.isPresent()) {
+            if(hwm.get().isUpToDate()) {
+                logger.info(tableDefinition.getName()+" is up to date at "+hwm.get());
+                progress.ifPresent(ChunkProgress::done);
+                return CompletableFuture.completedFuture(true);
+            }
+            if(progress.isPresent()) {
+                hwm.get().pin(checkpointStore);
+            }
+            tmp = tmp.stream().map(hwm.get()::restrict).collect(Collectors.toList());
+            options = incrementalWriteOptions(tableDefinition, options);
+        }
+        WriteOptions chunkOptions = options;
+        logger.info("processing "+tableDefinition+" as "+tmp.size()+" chunk(s)");
+        CompletableFuture<Boolean> result = inFlight(tmp.stream().map(c -> (Supplier<CompletableFuture<Boolean>>) () -> processChunk(c, progress, chunkOptions)).collect(Collectors.toList()));
+        // the mark only advances, and the table is only marked done, once every chunk has been written
+        return result.thenApply(ok -> {
+            if(ok) {
+                hwm.ifPresent(h -> h.commit(checkpointStore));
+                progress.ifPresent(ChunkProgress::done);
+            }
+            return ok;
+        });
+    }
+
+    // a table with skipped batches fails the run, and holds back the tables that reference it, rather than
+    // passing as complete
+    private static CompletableFuture<Boolean> failIfIncomplete(TableDefinition tableDefinition, CompletableFuture<Boolean> fut) {
+        return fut.thenApply(ok -> {
+            if(!ok) {
+                throw new IllegalStateException(tableDefinition.getName()+" was not copied in full, some of its batches failed");
+            }
+            return true;
+        });
+    }
+
+    // only the ranges that differ are copied again. every range of the table is digested and narrowed, synchronously,
+    // before any of them is copied. a table with a primary key is upserted, and the keys only the target holds are
+    // left for removeOrphans, which runs children before parents once every table is copied. a table without one
+    // has its ranges deleted and re-inserted
+    private CompletableFuture<Boolean> processDifferences(TableDefinition tableDefinition) {
+        String table = tableDefinition.getName();
+        int ranges = Math.max(chunks.apply(table), Verifier.DEFAULT_RANGES);
+        List<Chunk> tmp = new DifferentialCopy(verifier, sourcedB, targetdB, differential).differingRanges(tableDefinition, ranges);
+        boolean keyed = !tableDefinition.getPrimaryKey().isEmpty();
+        WriteOptions options = writeOptions.apply(table).withUpsert(keyed);
+        return inFlight(tmp.stream().map(c -> (Supplier<CompletableFuture<Boolean>>) () -> {
+            if(keyed) {
+                Set<List<Object>> keys = targetdB.keys(c);
+                keys.removeAll(sourcedB.keys(c));
+                if(!keys.isEmpty()) {
+                    orphans.computeIfAbsent(table, t -> ConcurrentHashMap.newKeySet()).addAll(keys);
                 }
-            });
+            } else {
+                int n = targetdB.delete(c);
+                logger.info("removed "+n+" rows of differing "+c);
+            }
+            return processChunk(c, options);
+        }).collect(Collectors.toList()));
+    }
+
+    // a table's chunks, ranges or files, chunksInFlight of them at a time; true once every one of them is
+    private CompletableFuture<Boolean> inFlight(List<Supplier<CompletableFuture<Boolean>>> tasks) {
+        return ExecutionEngine.inFlight(tasks, chunksInFlight).thenApply(l -> l.stream().reduce(true, Boolean::logicalAnd));
+    }
+
+    private Optional<ChunkProgress> progressFor(TableDefinition tableDefinition) {
+        if(!resumable) {
+            return Optional.empty();
         }
+        if(checkpointStore == null) {
+            throw new IllegalStateException("resumable copy of "+tableDefinition.getName()+" requires a checkpoint store");
+        }
+        return Optional.of(new ChunkProgress(checkpointStore, tableDefinition));
     }
 
-    private void waitForWorkerCompletion(int qSize) throws InterruptedException {
-        while(outQueue.size() != qSize) {
-            synchronized (inQueue) {
-                inQueue.wait(100000);
+    private CompletableFuture<Boolean> processChunk(Chunk chunk, Optional<ChunkProgress> progress, WriteOptions options) {
+        if(!progress.isPresent()) {
+            return processChunk(chunk, options);
+        }
+        ChunkProgress p = progress.get();
+        switch(p.status(chunk)) {
+            case DONE:
+                logger.info("skipping completed "+chunk);
+                return CompletableFuture.completedFuture(true);
+            case STARTED:
+                // whatever an interrupted copy committed is removed, the chunk is then copied again in full
+                int n = targetdB.delete(chunk);
+                logger.info("removed "+n+" rows of interrupted "+chunk);
+                break;
+            default:
+        }
+        p.started(chunk);
+        return processChunk(chunk, options).thenApply(ok -> {
+            if(ok) {
+                p.done(chunk);
             }
+            return ok;
+        });
+    }
+
+    private Optional<HighWaterMark> highWaterMarkFor(TableDefinition tableDefinition) {
+        String column = incremental.apply(tableDefinition.getName());
+        if(column == null) {
+            return Optional.empty();
         }
+        if(checkpointStore == null) {
+            throw new IllegalStateException("incremental copy of "+tableDefinition.getName()+" requires a checkpoint store");
+        }
+        Optional<ColumnDefinition> cd = tableDefinition.getColumnDef(column);
+        if(!cd.isPresent()) {
+            logger.warn(tableDefinition.getName()+" has no column "+column+", copying it in full");
+            return Optional.empty();
+        }
+        HighWaterMark hwm = HighWaterMark.of(tableDefinition, cd.get(), checkpointStore, sourcedB);
+        logger.info("incremental copy of "+hwm);
+        return Optional.of(hwm);
     }
 
-    private CompletableFuture<Boolean> processTableDefinition(TableDefinition tableDefinition) {
+    // a mark on anything but the key, a last modified timestamp say, brings back rows the target already holds. they
+    // are upserted, which needs a key to match them by
+    private WriteOptions incrementalWriteOptions(TableDefinition tableDefinition, WriteOptions options) {
+        String column = incremental.apply(tableDefinition.getName());
+        List<String> key = tableDefinition.getPrimaryKey();
+        if(options.isUpsert() || (key.size() == 1 && key.get(0).equalsIgnoreCase(column))) {
+            return options;
+        }
+        logger.info("upserting "+tableDefinition.getName()+", its rows are marked by "+column+" rather than by their key");
+        return options.withUpsert(true);
+    }
+
+    // fails the run before any table is copied rather than part way through it
+    private void checkIncremental(List<TableDefinition> tables) {
+        // a differential copy plans its own ranges from the comparison and would silently ignore either
+        if(differential > 0 && resumable) {
+            throw new IllegalStateException("a differential copy cannot be resumable");
+        }
+        tables.forEach(td -> {
+            String column = incremental.apply(td.getName());
+            if(column == null || !td.getColumnDef(column).isPresent()) {
+                return;
+            }
+            if(differential > 0) {
+                throw new IllegalStateException("incremental copy of "+td.getName()+" cannot be combined with a differential copy");
+            }
+            if(checkpointStore == null) {
+                throw new IllegalStateException("incremental copy of "+td.getName()+" requires a checkpoint store");
+            }
+            List<String> key = td.getPrimaryKey();
+            boolean byKey = key.size() == 1 && key.get(0).equalsIgnoreCase(column);
+            if(!byKey && key.isEmpty()) {
+                throw new IllegalStateException("incremental copy of "+td.getName()+" by "+column+" needs a primary key to apply changed rows by, the table has none");
+            }
+        });
+    }
+
+    private void removeOrphans(DependencyGraph graph) {
+        List<TableDefinition> order = graph.topologicalOrder();
+        Collections.reverse(order);
+        order.stream().filter(td -> orphans.containsKey(td.getName())).forEach(td -> {
+            int n = targetdB.delete(td, orphans.get(td.getName()));
+            logger.info("removed "+n+" rows of "+td.getName()+" no longer in the source");
+        });
+    }
+
+    private CompletableFuture<Boolean> processChunk(Chunk chunk, WriteOptions options) {
         try {
             CompletableFuture<Boolean> fut = new CompletableFuture<>();
-            Publisher<TableRowUpdate> publisher = sourcedB.asPublisherFor(tableDefinition);
-            Subscriber<TableRowUpdate> subscriber = targetdB.asSubscriberFor(tableDefinition, batchSize, fut::complete, fut::completeExceptionally);
-            Processor<TableRowUpdate, TableRowUpdate> processor = getProcessor(publisher, subscriber);
+            BatchSizeController controller = batchSizeController.apply(batchSize);
+            Publisher<RowBatch> publisher = sourcedB.asPublisherFor(chunk, controller, readOptions.apply(chunk.getTable()));
+            if(spillDirectory != null) {
+                publisher = new SpillBuffer(publisher, chunk.getTableDefinition(), spillDirectory, spillHeap, spillWatermark, maxSpillBytes, engine.getIoExecutor());
+            }
+            Subscriber<RowBatch> subscriber = targetdB.asSubscriberFor(chunk.getTableDefinition(), options, controller, fut::complete, fut::completeExceptionally);
+            Processor<RowBatch, RowBatch> processor = getProcessor(chunk.getTable(), publisher, subscriber);
             return fut;
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
@@ -144,12 +461,49 @@ public class DbStreamer {
         }
     }
 
-    private Processor<TableRowUpdate, TableRowUpdate> getProcessor(Publisher<TableRowUpdate> publisher, Subscriber<TableRowUpdate> subscriber) {
-        Processor<TableRowUpdate, TableRowUpdate> processor = new Processor<TableRowUpdate, TableRowUpdate>() {
-            private Subscriber<? super TableRowUpdate> subscriber;
+    // each chunk becomes its own file, written concurrently, so that the import can load them in parallel
+    private CompletableFuture<Boolean> exportTableDefinition(TableDefinition tableDefinition, Path dir, FileFormat format) {
+        String table = tableDefinition.getName();
+        format.remove(dir, table);
+        List<Chunk> tmp = sourcedB.chunksFor(tableDefinition, chunks.apply(table));
+        logger.info("exporting "+tableDefinition+" as "+tmp.size()+" "+format+" file(s)");
+        List<Supplier<CompletableFuture<Boolean>>> tasks = new ArrayList<>();
+        for(int i=0; i<tmp.size(); i++) {
+            Chunk chunk = tmp.get(i);
+            Path file = format.fileFor(dir, table, i);
+            tasks.add(() -> {
+                CompletableFuture<Boolean> fut = new CompletableFuture<>();
+                Publisher<RowBatch> publisher = sourcedB.asPublisherFor(chunk, batchSizeController.apply(batchSize), readOptions.apply(table));
+                Subscriber<RowBatch> subscriber = format.writerFor(file, tableDefinition, metrics.forTable(table), fut::complete, fut::completeExceptionally);
+                getProcessor(table, publisher, subscriber);
+                return fut;
+            });
+        }
+        return inFlight(tasks);
+    }
+
+    private CompletableFuture<Boolean> importTableDefinition(TableDefinition tableDefinition, Path dir, FileFormat format) {
+        String table = tableDefinition.getName();
+        List<Path> files = format.filesFor(dir, table);
+        List<Publisher<RowBatch>> readers = files.stream()
+                .flatMap(f -> format.readersFor(f, tableDefinition, batchSize, engine.getIoExecutor(), metrics.forTable(table)).stream())
+                .collect(Collectors.toList());
+        logger.info("importing "+tableDefinition+" from "+files.size()+" "+format+" file(s) in "+readers.size()+" part(s)");
+        return inFlight(readers.stream().map(publisher -> (Supplier<CompletableFuture<Boolean>>) () -> {
+            CompletableFuture<Boolean> fut = new CompletableFuture<>();
+            Subscriber<RowBatch> subscriber = targetdB.asSubscriberFor(tableDefinition, writeOptions.apply(table), batchSizeController.apply(batchSize), fut::complete, fut::completeExceptionally);
+            getProcessor(table, publisher, subscriber);
+            return fut;
+        }).collect(Collectors.toList()));
+    }
+
+    private Processor<RowBatch, RowBatch> getProcessor(String table, Publisher<RowBatch> publisher, Subscriber<RowBatch> subscriber) {
+        UnaryOperator<ColumnUpdate> f = ff.apply(table);
+        Processor<RowBatch, RowBatch> processor = new Processor<RowBatch, RowBatch>() {
+            private Subscriber<? super RowBatch> subscriber;
 
             @Override
-            public void subscribe(Subscriber<? super TableRowUpdate> s) {
+            public void subscribe(Subscriber<? super RowBatch> s) {
                 this.subscriber = s;
             }
 
@@ -161,10 +515,8 @@ public class DbStreamer {
             }
 
             @Override
-            public void onNext(TableRowUpdate tru) {
-                UnaryOperator<ColumnUpdate> f = ff.apply(tru.getTable());
-                List<ColumnUpdate> updates = tru.getColumnUpdates().stream().map(c -> f.apply(c)).collect(Collectors.toList());
-                this.subscriber.onNext(new TableRowUpdate(tru.getTableDefinition(), updates));
+            public void onNext(RowBatch batch) {
+                this.subscriber.onNext(transform(batch, f));
             }
 
             @Override
@@ -182,8 +534,17 @@ public class DbStreamer {
         return processor;
     }
 
-    private void enqueue(TableDefinition td) {
-        inQueue.offer(td);
+    static RowBatch transform(RowBatch batch, UnaryOperator<ColumnUpdate> f) {
+        // untransformed tables (the common case, f is null) pass straight through, otherwise cells are rewritten in place
+        if(f != null) {
+            for(int row=0; row<batch.size(); row++) {
+                for(int col=0; col<batch.width(); col++) {
+                    ColumnUpdate cu = f.apply(new ColumnUpdate(batch.getColumnDefinition(col), batch.get(col, row)));
+                    batch.set(col, row, cu.getResult());
+                }
+            }
+        }
+        return batch;
     }
 
     public DbStreamer excludeTables(Predicate<String> excluded) {
@@ -196,6 +557,168 @@ public class DbStreamer {
         return this;
     }
 
+    public DbStreamer withTableParallelism(int n) {
+        this.tableParallelism = n;
+        return this;
+    }
+
+    // caps the threads shared by every reader, spill drain and writer; defaults to what the tables in flight, their
+    // chunks in flight and their writers can hold at once
+    public DbStreamer withIoThreads(int n) {
+        this.ioThreads = n;
+        return this;
+    }
+
+    // the chunks, ranges or files of one table copied at once, the rest wait for one of them to complete
+    public DbStreamer withChunksInFlight(int n) {
+        this.chunksInFlight = n;
+        return this;
+    }
+
+    public DbStreamer withReferentialIntegrityChecksDisabled() {
+        return withReferentialIntegrityChecksDisabled(g -> true);
+    }
+
+    public DbStreamer withReferentialIntegrityChecksDisabled(Predicate<DependencyGraph> p) {
+        this.disableReferentialIntegrityChecks = p;
+        return this;
+    }
+
+    public DbStreamer withCostEstimator(ToLongFunction<TableDefinition> f) {
+        this.costEstimator = f;
+        return this;
+    }
+
+    public DbStreamer withWeights(Function<String, Double> f) {
+        this.weights = f;
+        return this;
+    }
+
+    public DbStreamer withWeight(Predicate<String> filter, double weight) {
+        Function<String, Double> previous = this.weights;
+        this.weights = t -> filter.test(t) ? weight : previous.apply(t);
+        return this;
+    }
+
+    public DbStreamer withReadOptions(ReadOptions options) {
+        return withReadOptions(t -> options);
+    }
+
+    public DbStreamer withReadOptions(Predicate<String> filter, ReadOptions options) {
+        Function<String, ReadOptions> previous = this.readOptions;
+        this.readOptions = t -> filter.test(t) ? options : previous.apply(t);
+        return this;
+    }
+
+    public DbStreamer withReadOptions(Function<String, ReadOptions> f) {
+        this.readOptions = f;
+        return this;
+    }
+
+    public DbStreamer withBatchSize(int n) {
+        this.batchSize = n;
+        return this;
+    }
+
+    public DbStreamer withAdaptiveBatchSize(int min, int max, long targetLatency, TimeUnit unit) {
+        this.batchSizeController = n -> BatchSizeController.adaptive(n, min, max, targetLatency, unit);
+        return this;
+    }
+
+    public DbStreamer withAdaptiveBatchSize(int min, int max, long targetLatency, TimeUnit unit, long maxBytes) {
+        this.batchSizeController = n -> BatchSizeController.adaptive(n, min, max, targetLatency, unit, maxBytes);
+        return this;
+    }
+
+    public DbStreamer withWriteOptions(WriteOptions options) {
+        return withWriteOptions(t -> options);
+    }
+
+    public DbStreamer withWriteOptions(Predicate<String> filter, WriteOptions options) {
+        Function<String, WriteOptions> previous = this.writeOptions;
+        this.writeOptions = t -> filter.test(t) ? options : previous.apply(t);
+        return this;
+    }
+
+    public DbStreamer withWriteOptions(Function<String, WriteOptions> f) {
+        this.writeOptions = f;
+        return this;
+    }
+
+    public DbStreamer withCheckpointStore(CheckpointStore store) {
+        this.checkpointStore = store;
+        return this;
+    }
+
+    public DbStreamer withMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public DbStreamer withSpill(Path dir) {
+        return withSpill(dir, SpillBuffer.DEFAULT_WATERMARK);
+    }
+
+    public DbStreamer withSpill(Path dir, long watermark) {
+        return withSpill(dir, watermark, Long.MAX_VALUE);
+    }
+
+    // keep reading while the target stalls: once watermark bytes are held across all chunks in flight further batches
+    // go to files in dir, and only once maxSpillBytes of a chunk's are on disk is its source read held back
+    public DbStreamer withSpill(Path dir, long watermark, long maxSpillBytes) {
+        this.spillDirectory = dir;
+        this.spillWatermark = watermark;
+        this.maxSpillBytes = maxSpillBytes;
+        return this;
+    }
+
+    public DbStreamer withDifferential() {
+        return withDifferential(DifferentialCopy.DEFAULT_GRANULARITY);
+    }
+
+    // compare before copying and copy only ranges of at most granularity rows that differ; 0 copies everything
+    public DbStreamer withDifferential(int granularity) {
+        this.differential = granularity;
+        return this;
+    }
+
+    public DbStreamer withResumable(boolean resumable) {
+        this.resumable = resumable;
+        return this;
+    }
+
+    public DbStreamer withIncremental(String column) {
+        return withIncremental(t -> column);
+    }
+
+    public DbStreamer withIncremental(Predicate<String> filter, String column) {
+        Function<String, String> previous = this.incremental;
+        this.incremental = t -> filter.test(t) ? column : previous.apply(t);
+        return this;
+    }
+
+    public DbStreamer withIncremental(Function<String, String> f) {
+        this.incremental = f;
+        return this;
+    }
+
+    public DbStreamer withChunks(int n) {
+        return withChunks(t -> n);
+    }
+
+    public DbStreamer withChunks(Predicate<String> filter, int n) {
+        return withChunks(t -> filter.test(t) ? n : 1);
+    }
+
+    public DbStreamer withChunks(Function<String, Integer> f) {
+        this.chunks = f;
+        return this;
+    }
+
     public DbStreamer withColumnDefinition(BiFunction<String, ColumnDefinition, ColumnDefinition> f) {
         this.bf = f;
         return this;
@@ -206,6 +729,7 @@ public class DbStreamer {
         return this;
     }
 
+    // f returns null for a table it leaves as is, which then skips the per cell transform altogether
     public DbStreamer withColumnUpdate(Function<String, UnaryOperator<ColumnUpdate>> f) {
         this.ff = f;
         return this;
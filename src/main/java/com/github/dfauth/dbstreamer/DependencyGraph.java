@@ -0,0 +1,108 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+public class DependencyGraph {
+
+    private static final Logger logger = LoggerFactory.getLogger(DependencyGraph.class);
+
+    private final Map<String, TableDefinition> tables = new LinkedHashMap<>();
+    private final Map<String, Set<String>> dependencies = new HashMap<>();
+    private final List<List<TableDefinition>> waves = new ArrayList<>();
+    private final Set<String> cyclic = new LinkedHashSet<>();
+    private final Set<String> selfReferencing = new LinkedHashSet<>();
+
+    public DependencyGraph(Collection<TableDefinition> tableDefs) {
+        tableDefs.forEach(td -> tables.put(td.getName(), td));
+        tables.values().forEach(td -> {
+            if(td.getDependencies().contains(td.getName())) {
+                selfReferencing.add(td.getName());
+            }
+            // references to tables outside this run, and self references, impose no ordering between tables
+            Set<String> deps = td.getDependencies().stream()
+                    .filter(tables::containsKey)
+                    .filter(d -> !d.equals(td.getName()))
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            dependencies.put(td.getName(), deps);
+        });
+        compile();
+    }
+
+    // Kahn's algorithm, one wave per round of tables whose dependencies have all been scheduled
+    private void compile() {
+        Map<String, Set<String>> remaining = new LinkedHashMap<>();
+        tables.keySet().forEach(t -> remaining.put(t, new HashSet<>(dependencies.get(t))));
+        while(!remaining.isEmpty()) {
+            List<String> wave = remaining.entrySet().stream()
+                    .filter(e -> e.getValue().isEmpty())
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+            if(wave.isEmpty()) {
+                // every remaining table waits on another, break the cycle at the table with the fewest unmet dependencies
+                String t = remaining.entrySet().stream()
+                        .min(Comparator.comparingInt(e -> e.getValue().size()))
+                        .map(Map.Entry::getKey)
+                        .get();
+                logger.warn("foreign keys of "+t+" on "+remaining.get(t)+" form a cycle, they will not be honoured and may need referential integrity checks disabled");
+                cyclic.add(t);
+                dependencies.get(t).removeAll(remaining.get(t));
+                remaining.get(t).clear();
+                continue;
+            }
+            wave.forEach(remaining::remove);
+            remaining.values().forEach(deps -> deps.removeAll(wave));
+            waves.add(wave.stream().map(tables::get).collect(Collectors.toList()));
+        }
+    }
+
+    public List<List<TableDefinition>> waves() {
+        return waves;
+    }
+
+    public List<TableDefinition> topologicalOrder() {
+        return waves.stream().flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    public Set<String> dependenciesOf(TableDefinition td) {
+        return dependencies.getOrDefault(td.getName(), Collections.emptySet());
+    }
+
+    // a table's rank is its own cost plus the largest rank of the tables waiting on it, so tables gating
+    // a large table are ranked at least as highly as the large table itself
+    public Map<String, Double> ranks(ToDoubleFunction<TableDefinition> cost) {
+        Map<String, Double> ranks = new HashMap<>();
+        List<TableDefinition> order = topologicalOrder();
+        Collections.reverse(order);
+        order.forEach(td -> {
+            double downstream = tables.keySet().stream()
+                    .filter(t -> dependencies.get(t).contains(td.getName()))
+                    .mapToDouble(ranks::get)
+                    .max().orElse(0);
+            ranks.put(td.getName(), cost.applyAsDouble(td) + downstream);
+        });
+        return ranks;
+    }
+
+    public boolean hasCycles() {
+        return !cyclic.isEmpty();
+    }
+
+    // rows of a table referencing itself are copied in no particular order, chunks and writers run concurrently
+    public boolean hasSelfReferences() {
+        return !selfReferencing.isEmpty();
+    }
+
+    public int size() {
+        return tables.size();
+    }
+
+    @Override
+    public String toString() {
+        return "DependencyGraph("+waves.stream().map(w -> w.stream().map(TableDefinition::getName).collect(Collectors.toList()).toString()).collect(Collectors.joining(" -> "))+")";
+    }
+}
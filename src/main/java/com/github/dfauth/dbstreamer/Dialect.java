@@ -0,0 +1,212 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public enum Dialect {
+
+    HSQLDB(Integer.MAX_VALUE, "HSQL Database Engine") {
+        @Override
+        public Optional<List<String>> referentialIntegrityStatements(List<String> tables, boolean enabled) {
+            return Optional.of(Collections.singletonList("SET DATABASE REFERENTIAL INTEGRITY "+(enabled ? "TRUE" : "FALSE")));
+        }
+    },
+    MYSQL(65535, "MySQL", "MariaDB") {
+        @Override
+        public void configureForRead(Connection connection, PreparedStatement pstmt, ReadOptions options) throws SQLException {
+            if(!options.isStreaming()) {
+                super.configureForRead(connection, pstmt, options);
+            } else if(connection.getMetaData().getURL().contains("useCursorFetch=true")) {
+                // server side cursor, rows arrive fetchSize at a time
+                pstmt.setFetchSize(options.getFetchSize());
+            } else {
+                // Connector/J only streams row by row when the fetch size is exactly Integer.MIN_VALUE, otherwise it buffers the whole result
+                pstmt.setFetchSize(Integer.MIN_VALUE);
+            }
+        }
+
+        @Override
+        public String upsertStatement(String table, List<String> columns, List<String> keys, int rows) {
+            List<String> updated = nonKeyColumns(columns, keys);
+            // a table made only of key columns still needs an assignment, a no-op one keeps the row as is
+            String assignments = (updated.isEmpty() ? keys : updated).stream().map(c -> String.format("%s=VALUES(%s)", c, c)).collect(Collectors.joining(","));
+            return String.format("insert into %s (%s) values %s on duplicate key update %s", table, String.join(",", columns), valuesList(columns, rows), assignments);
+        }
+
+        @Override
+        public Optional<String> digestQuery(String table, List<String> columns, String whereClause) {
+            // json_array keeps nulls, types and value boundaries apart; the first 64 bits of its md5 are summed exactly
+            return Optional.of(String.format("select count(*), coalesce(sum(cast(conv(substr(md5(json_array(%s)), 1, 16), 16, 10) as unsigned)), 0) from %s%s",
+                    String.join(",", columns), table, whereClause));
+        }
+
+        @Override
+        public Optional<String> rowEstimateQuery() {
+            return Optional.of("select table_rows from information_schema.tables where table_schema = database() and table_name = ?");
+        }
+
+        @Override
+        public Optional<List<String>> referentialIntegrityStatements(List<String> tables, boolean enabled) {
+            // only session scoped, so it is applied to every writer connection instead
+            return Optional.of(Collections.emptyList());
+        }
+
+        @Override
+        public Optional<String> sessionReferentialIntegrityStatement(boolean enabled) {
+            return Optional.of("SET FOREIGN_KEY_CHECKS="+(enabled ? 1 : 0));
+        }
+    },
+    SQLSERVER(2100, "Microsoft SQL Server") {
+        @Override
+        public int maxRowsPerStatement() {
+            // limit of a table value constructor
+            return 1000;
+        }
+
+        @Override
+        public String upsertStatement(String table, List<String> columns, List<String> keys, int rows) {
+            // SQL Server insists on the terminator after MERGE
+            return super.upsertStatement(table, columns, keys, rows)+";";
+        }
+
+        @Override
+        public Optional<String> digestQuery(String table, List<String> columns, String whereClause) {
+            // checksum_agg xors, so equal changes to two rows cancel out. each row is rendered as json, which keeps nulls,
+            // types and value boundaries apart, and the first 64 bits of its sha-256 are summed exactly. aggregates
+            // cannot hold a subquery, hence the derived table
+            return Optional.of(String.format("select count_big(*), coalesce(sum(cast(h as decimal(38,0))), 0) from "
+                    + "(select cast(substring(hashbytes('SHA2_256', (select %s for json path, without_array_wrapper, include_null_values)), 1, 8) as bigint) h from %s%s) d",
+                    String.join(",", columns), table, whereClause));
+        }
+
+        @Override
+        public Optional<String> rowEstimateQuery() {
+            return Optional.of("select sum(row_count) from sys.dm_db_partition_stats where object_id = object_id(?) and index_id < 2");
+        }
+
+        @Override
+        public Optional<List<String>> referentialIntegrityStatements(List<String> tables, boolean enabled) {
+            // re-enabling with check validates the rows written meanwhile, so the constraints are trusted again
+            String action = enabled ? "with check check constraint all" : "nocheck constraint all";
+            return Optional.of(tables.stream().map(t -> String.format("alter table %s %s", t, action)).collect(Collectors.toList()));
+        }
+    },
+    POSTGRESQL(32767, "PostgreSQL") {
+        @Override
+        public void configureForRead(Connection connection, PreparedStatement pstmt, ReadOptions options) throws SQLException {
+            if(options.isStreaming()) {
+                // the driver only uses a cursor inside a transaction
+                connection.setAutoCommit(false);
+            }
+            super.configureForRead(connection, pstmt, options);
+        }
+
+        @Override
+        public String upsertStatement(String table, List<String> columns, List<String> keys, int rows) {
+            List<String> updated = nonKeyColumns(columns, keys);
+            String action = updated.isEmpty() ? "do nothing" : "do update set "+updated.stream().map(c -> String.format("%s=excluded.%s", c, c)).collect(Collectors.joining(","));
+            return String.format("insert into %s (%s) values %s on conflict (%s) %s", table, String.join(",", columns), valuesList(columns, rows), String.join(",", keys), action);
+        }
+
+        @Override
+        public Optional<String> digestQuery(String table, List<String> columns, String whereClause) {
+            // json_build_array keeps nulls, types and value boundaries apart; the first 64 bits of its md5 are summed exactly
+            return Optional.of(String.format("select count(*), coalesce(sum(('x'||substr(md5(json_build_array(%s)::text), 1, 16))::bit(64)::bigint::numeric), 0) from %s%s",
+                    String.join(",", columns), table, whereClause));
+        }
+
+        @Override
+        public Optional<String> rowEstimateQuery() {
+            // reltuples is -1 for a table never analyzed, which the caller treats as unknown
+            return Optional.of("select reltuples::bigint from pg_class where relname = ? and relkind = 'r' and pg_table_is_visible(oid)");
+        }
+    },
+    GENERIC(1000);
+
+    private static final Logger logger = LoggerFactory.getLogger(Dialect.class);
+
+    private final int maxParameters;
+    private final String[] productNames;
+
+    Dialect(int maxParameters, String... productNames) {
+        this.maxParameters = maxParameters;
+        this.productNames = productNames;
+    }
+
+    public int maxParameters() {
+        return maxParameters;
+    }
+
+    public int maxRowsPerStatement() {
+        return Integer.MAX_VALUE;
+    }
+
+    public static Dialect of(Connection connection) throws SQLException {
+        String productName = connection.getMetaData().getDatabaseProductName();
+        Dialect dialect = Stream.of(values())
+                .filter(d -> Stream.of(d.productNames).anyMatch(productName::startsWith))
+                .findFirst()
+                .orElse(GENERIC);
+        logger.info("database product "+productName+" uses dialect "+dialect);
+        return dialect;
+    }
+
+    public void configureForRead(Connection connection, PreparedStatement pstmt, ReadOptions options) throws SQLException {
+        if(options.getFetchSize() > 0) {
+            pstmt.setFetchSize(options.getFetchSize());
+        }
+    }
+
+    // an insert of rows rows that updates the non key columns of any row whose key already exists.
+    // the standard MERGE, with the new rows as a table value constructor
+    public String upsertStatement(String table, List<String> columns, List<String> keys, int rows) {
+        List<String> updated = nonKeyColumns(columns, keys);
+        String on = keys.stream().map(k -> String.format("t.%s=s.%s", k, k)).collect(Collectors.joining(" and "));
+        String matched = updated.isEmpty() ? "" : " when matched then update set "+updated.stream().map(c -> String.format("t.%s=s.%s", c, c)).collect(Collectors.joining(","));
+        String inserted = columns.stream().map(c -> "s."+c).collect(Collectors.joining(","));
+        return String.format("merge into %s t using (values %s) s (%s) on %s%s when not matched then insert (%s) values (%s)",
+                table, valuesList(columns, rows), String.join(",", columns), on, matched, String.join(",", columns), inserted);
+    }
+
+    // a query returning the row count and an order independent digest of the rows matching whereClause,
+    // computed by the server: the exact sum of a 64 bit hash per row, compared modulo 2^64. empty where the
+    // dialect has no suitable hash function
+    public Optional<String> digestQuery(String table, List<String> columns, String whereClause) {
+        return Optional.empty();
+    }
+
+    // a query taking the table name and returning the row count the catalog last recorded for it, without scanning the table.
+    // empty where the dialect keeps no such statistic
+    public Optional<String> rowEstimateQuery() {
+        return Optional.empty();
+    }
+
+    // the statements that switch foreign key checks off, or back on, for the whole database. empty where the dialect
+    // cannot, in which case the copy relies on tables being written in dependency order
+    public Optional<List<String>> referentialIntegrityStatements(List<String> tables, boolean enabled) {
+        return Optional.empty();
+    }
+
+    // the statement switching foreign key checks for a single connection, where the database only scopes it that way
+    public Optional<String> sessionReferentialIntegrityStatement(boolean enabled) {
+        return Optional.empty();
+    }
+
+    protected static String valuesList(List<String> columns, int rows) {
+        String row = "("+String.join(",", Collections.nCopies(columns.size(), "?"))+")";
+        return String.join(",", Collections.nCopies(rows, row));
+    }
+
+    protected static List<String> nonKeyColumns(List<String> columns, List<String> keys) {
+        return columns.stream().filter(c -> !keys.contains(c)).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+// narrows a table down to the key ranges whose contents differ between source and target. mismatching
+// ranges are split and compared again until they hold no more than granularity rows or cannot be split
+public class DifferentialCopy {
+
+    private static final Logger logger = LoggerFactory.getLogger(DifferentialCopy.class);
+    public static final int DEFAULT_GRANULARITY = 1000;
+    private static final int FANOUT = 4;
+    // rows sharing one value of a non unique split column never separate, stop splitting them eventually
+    private static final int MAX_DEPTH = 16;
+
+    private final Verifier verifier;
+    private final SourceDatabase source;
+    private final TargetDatabase target;
+    private final int granularity;
+
+    public DifferentialCopy(Verifier verifier, SourceDatabase source, TargetDatabase target, int granularity) {
+        this.verifier = verifier;
+        this.source = source;
+        this.target = target;
+        this.granularity = granularity;
+    }
+
+    public List<Chunk> differingRanges(TableDefinition tableDef, int ranges) {
+        List<Chunk> tmp = differing(source.chunksFor(tableDef, ranges)).stream()
+                .flatMap(m -> narrow(m, 0).stream())
+                .collect(Collectors.toList());
+        logger.info(tableDef.getName()+" differs in "+tmp.size()+" range(s)");
+        return tmp;
+    }
+
+    private List<Verifier.Mismatch> differing(List<Chunk> chunks) {
+        List<CompletableFuture<Optional<Verifier.Mismatch>>> futs = chunks.stream().map(verifier::verify).collect(Collectors.toList());
+        return futs.stream().map(CompletableFuture::join).filter(Optional::isPresent).map(Optional::get).collect(Collectors.toList());
+    }
+
+    private List<Chunk> narrow(Verifier.Mismatch mismatch, int depth) {
+        Chunk chunk = mismatch.getChunk();
+        if(depth >= MAX_DEPTH || Math.max(mismatch.getSource().getCount(), mismatch.getTarget().getCount()) <= granularity) {
+            return Collections.singletonList(chunk);
+        }
+        List<Chunk> parts = split(chunk);
+        if(parts.size() < 2) {
+            return Collections.singletonList(chunk);
+        }
+        List<Chunk> tmp = new ArrayList<>();
+        differing(parts).forEach(m -> tmp.addAll(narrow(m, depth + 1)));
+        return tmp;
+    }
+
+    private List<Chunk> split(Chunk chunk) {
+        Optional<String> column = chunk.getKeyColumn();
+        if(!column.isPresent()) {
+            return Collections.emptyList();
+        }
+        // the keys present on either side bound an open ended range, rows only in the target count too
+        Optional<long[]> s = source.bounds(chunk, column.get());
+        Optional<long[]> t = target.bounds(chunk, column.get());
+        if(!s.isPresent() && !t.isPresent()) {
+            return Collections.emptyList();
+        }
+        long lower = Math.min(s.map(b -> b[0]).orElse(Long.MAX_VALUE), t.map(b -> b[0]).orElse(Long.MAX_VALUE));
+        long max = Math.max(s.map(b -> b[1]).orElse(Long.MIN_VALUE), t.map(b -> b[1]).orElse(Long.MIN_VALUE));
+        // saturates rather than wrapping, the last part of an open range is open ended anyway
+        long upper = max == Long.MAX_VALUE ? max : max + 1;
+        return chunk.split(FANOUT, lower, upper);
+    }
+}
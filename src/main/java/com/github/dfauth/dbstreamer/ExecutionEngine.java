@@ -0,0 +1,242 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+public class ExecutionEngine implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionEngine.class);
+    public static final int DEFAULT_TABLE_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    // a table copies this many of its chunks at once, starting the next as one completes
+    public static final int DEFAULT_CHUNKS_IN_FLIGHT = 2;
+    // a chunk in flight holds a reader, a drain and, when spilling, a spill drain. fanned out writers come on top
+    public static final int IO_THREADS_PER_CHUNK = 3;
+
+    private final int tableParallelism;
+    private final ExecutorService tableExecutor;
+    private final ThreadPoolExecutor ioExecutor;
+
+    public ExecutionEngine() {
+        this(DEFAULT_TABLE_PARALLELISM);
+    }
+
+    public ExecutionEngine(int tableParallelism) {
+        this(tableParallelism, ioThreadsFor(tableParallelism, DEFAULT_CHUNKS_IN_FLIGHT, 1));
+    }
+
+    public ExecutionEngine(int tableParallelism, int maxIoThreads) {
+        this.tableParallelism = tableParallelism;
+        // queued tables are taken highest rank first rather than in submission order
+        this.tableExecutor = new ThreadPoolExecutor(tableParallelism, tableParallelism, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), new NamedThreadFactory("dbstreamer-table"));
+        // readers and drain loops block on JDBC, so every task gets a thread of its own up to the bound. drains and
+        // writers resubmit themselves on every wake-up, from a thread that is about to become free but is not yet
+        // polling; the queue holds such a task for that thread instead of rejecting it. only past the bound and the
+        // queue is a task rejected, and the stream that submitted it fails with the rejection, failing its table
+        // rather than deadlocking or growing without limit
+        this.ioExecutor = new ThreadPoolExecutor(maxIoThreads, maxIoThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(maxIoThreads), new NamedThreadFactory("dbstreamer-io"), (r, e) -> {
+            throw new RejectedExecutionException(e.isShutdown() ? "execution engine is closed" : "all "+e.getMaximumPoolSize()+" io threads are busy, raise the io thread limit or lower the table parallelism or chunks in flight");
+        });
+        this.ioExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // the io threads every table copying chunksInFlight chunks at once can hold, each chunk with writers writer connections
+    public static int ioThreadsFor(int tableParallelism, int chunksInFlight, int writers) {
+        return tableParallelism * chunksInFlight * (IO_THREADS_PER_CHUNK + (writers > 1 ? writers : 0));
+    }
+
+    // raises the io thread limit once the tables, and so their writers, are known. never lowers it
+    public void ensureIoThreads(int n) {
+        if(n > ioExecutor.getMaximumPoolSize()) {
+            logger.info("raising the io thread limit to "+n);
+            ioExecutor.setMaximumPoolSize(n);
+            ioExecutor.setCorePoolSize(n);
+        }
+    }
+
+    public Executor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    public int getTableParallelism() {
+        return tableParallelism;
+    }
+
+    public <T> CompletableFuture<List<T>> run(List<TableDefinition> tables, Function<TableDefinition, CompletableFuture<T>> f) {
+        return run(new DependencyGraph(tables), f);
+    }
+
+    public <T> CompletableFuture<List<T>> run(DependencyGraph graph, Function<TableDefinition, CompletableFuture<T>> f) {
+        return run(graph, td -> 0, f);
+    }
+
+    public <T> CompletableFuture<List<T>> run(DependencyGraph graph, ToDoubleFunction<TableDefinition> cost, Function<TableDefinition, CompletableFuture<T>> f) {
+        logger.info("scheduling "+graph);
+        Map<String, Double> ranks = graph.ranks(cost);
+        Comparator<TableDefinition> byRank = Comparator.comparingDouble(td -> -ranks.get(td.getName()));
+        // a table starts as soon as the tables it references have completed, independent of the rest of its wave
+        Map<String, CompletableFuture<T>> futs = new LinkedHashMap<>();
+        graph.waves().stream().flatMap(w -> w.stream().sorted(byRank)).forEach(td -> {
+            CompletableFuture<?>[] parents = graph.dependenciesOf(td).stream().map(futs::get).toArray(CompletableFuture[]::new);
+            double rank = ranks.get(td.getName());
+            CompletableFuture<T> fut = CompletableFuture.allOf(parents)
+                    .thenApplyAsync(v -> {
+                        logger.info("starting "+td+" with rank "+rank);
+                        return f.apply(td).join(); // holding a table thread until the copy completes bounds the tables in flight
+                    }, r -> tableExecutor.execute(new RankedTask(r, rank)))
+                    .whenComplete((t, e) -> {
+                        if(e != null) {
+                            logger.error("failed to process "+td+": "+e.getMessage(), e);
+                        } else {
+                            logger.info("completed "+td);
+                        }
+                    });
+            futs.put(td.getName(), fut);
+        });
+        return CompletableFuture.allOf(futs.values().toArray(new CompletableFuture[0]))
+                .thenApply(v -> futs.values().stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    // starts at most limit of the tasks at once, each further one as an earlier one completes, so that a table of many
+    // chunks waits for io threads rather than being refused them. once a task fails, those not yet started fail with it
+    public static <T> CompletableFuture<List<T>> inFlight(List<Supplier<CompletableFuture<T>>> tasks, int limit) {
+        return new Throttle<>(tasks, limit).start();
+    }
+
+    @Override
+    public void close() {
+        tableExecutor.shutdown();
+        ioExecutor.shutdown();
+        try {
+            if(!tableExecutor.awaitTermination(30, TimeUnit.SECONDS) || !ioExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("execution engine did not terminate cleanly, interrupting remaining workers");
+                tableExecutor.shutdownNow();
+                ioExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            logger.error(e.getMessage(), e);
+            tableExecutor.shutdownNow();
+            ioExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static class Throttle<T> {
+
+        private final List<Supplier<CompletableFuture<T>>> tasks;
+        private final List<CompletableFuture<T>> results;
+        private final AtomicInteger permits;
+        // serialises the start loop, so a task completing as it is started never recurses into it
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private int next = 0;
+
+        Throttle(List<Supplier<CompletableFuture<T>>> tasks, int limit) {
+            this.tasks = tasks;
+            this.results = tasks.stream().map(t -> new CompletableFuture<T>()).collect(Collectors.toList());
+            this.permits = new AtomicInteger(Math.max(1, limit));
+        }
+
+        CompletableFuture<List<T>> start() {
+            drain();
+            return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                    .thenApply(v -> results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        }
+
+        private void drain() {
+            if(wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while(next < tasks.size()) {
+                    int i = next;
+                    if(error.get() != null) {
+                        next++;
+                        results.get(i).completeExceptionally(error.get());
+                        continue;
+                    }
+                    if(permits.get() == 0) {
+                        break;
+                    }
+                    permits.decrementAndGet();
+                    next++;
+                    launch(i);
+                }
+            } while(wip.decrementAndGet() != 0);
+        }
+
+        private void launch(int i) {
+            CompletableFuture<T> fut;
+            try {
+                fut = tasks.get(i).get();
+            } catch (RuntimeException e) {
+                fut = new CompletableFuture<>();
+                fut.completeExceptionally(e);
+            }
+            fut.whenComplete((t, e) -> {
+                if(e != null) {
+                    error.compareAndSet(null, e);
+                    results.get(i).completeExceptionally(e);
+                } else {
+                    results.get(i).complete(t);
+                }
+                permits.incrementAndGet();
+                drain();
+            });
+        }
+    }
+
+    static class RankedTask implements Runnable, Comparable<RankedTask> {
+
+        private static final AtomicLong seq = new AtomicLong();
+
+        private final Runnable r;
+        private final double rank;
+        private final long order = seq.getAndIncrement();
+
+        RankedTask(Runnable r, double rank) {
+            this.r = r;
+            this.rank = rank;
+        }
+
+        @Override
+        public void run() {
+            r.run();
+        }
+
+        @Override
+        public int compareTo(RankedTask o) {
+            int result = Double.compare(o.rank, rank);
+            return result != 0 ? result : Long.compare(order, o.order);
+        }
+    }
+
+    static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger cnt = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix+"-"+cnt.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// spreads the batches of one source stream across several writers, each on its own connection.
+// at most one batch is in flight per writer, so demand upstream never exceeds the number of idle writers
+public class FanOutSubscriber implements Subscriber<RowBatch> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FanOutSubscriber.class);
+
+    private final TableDefinition tableDefinition;
+    private final List<BatchWriter> writers;
+    private final ConcurrentLinkedQueue<BatchWriter> idle;
+    private final Executor executor;
+    private final boolean rollbackOnFailure;
+    private final Consumer<Boolean> completionListener;
+    private final Consumer<Throwable> exceptionListener;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean terminated = new AtomicBoolean(false);
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private volatile boolean done = false;
+    private volatile boolean ok = true;
+    private Subscription subscription;
+
+    FanOutSubscriber(TableDefinition tableDefinition, List<BatchWriter> writers, Executor executor, boolean rollbackOnFailure, Consumer<Boolean> completionListener, Consumer<Throwable> exceptionListener) {
+        this.tableDefinition = tableDefinition;
+        this.writers = writers;
+        this.idle = new ConcurrentLinkedQueue<>(writers);
+        this.executor = executor;
+        this.rollbackOnFailure = rollbackOnFailure;
+        this.completionListener = completionListener;
+        this.exceptionListener = exceptionListener;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        subscription = s;
+        subscription.request(writers.size());
+    }
+
+    @Override
+    public void onNext(RowBatch batch) {
+        if(done) {
+            return;
+        }
+        BatchWriter writer = idle.poll();
+        if(writer == null) {
+            onError(new IllegalStateException("received more batches for "+tableDefinition.getName()+" than were requested"));
+            return;
+        }
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(() -> write(writer, batch));
+        } catch (RejectedExecutionException e) {
+            // the batch is never written, the table fails like it would on a failed write
+            logger.error(e.getMessage(), e);
+            idle.offer(writer);
+            inFlight.decrementAndGet();
+            subscription.cancel();
+            onError(e);
+        }
+    }
+
+    private void write(BatchWriter writer, RowBatch batch) {
+        try {
+            boolean b = writer.write(batch);
+            // writers run concurrently, so ok is only ever cleared, never read back and rewritten
+            if(!b) {
+                ok = false;
+            }
+            logger.info("onNext: "+tableDefinition.getName()+" cnt: "+count()+" executeBatch() result: "+b);
+        } catch (SQLException e) {
+            ok = false;
+            logger.error(e.getMessage(), e);
+            if(rollbackOnFailure) {
+                error.compareAndSet(null, e);
+                done = true;
+                subscription.cancel();
+            } else {
+                writer.rollback();
+            }
+        } catch (RuntimeException e) {
+            logger.error(e.getMessage(), e);
+            error.compareAndSet(null, e);
+            done = true;
+            subscription.cancel();
+        }
+        idle.offer(writer);
+        if(inFlight.decrementAndGet() == 0 && done) {
+            terminate();
+        } else if(!done) {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        logger.error("onError("+t+")");
+        error.compareAndSet(null, t);
+        done = true;
+        if(inFlight.get() == 0) {
+            terminate();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        done = true;
+        if(inFlight.get() == 0) {
+            terminate();
+        }
+    }
+
+    private void terminate() {
+        if(!terminated.compareAndSet(false, true)) {
+            return;
+        }
+        Throwable t = error.get();
+        if(t != null && rollbackOnFailure) {
+            writers.forEach(BatchWriter::rollback);
+            writers.forEach(BatchWriter::close);
+            exceptionListener.accept(t);
+            return;
+        }
+        try {
+            for(BatchWriter writer : writers) {
+                writer.complete();
+            }
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            t = t == null ? e : t;
+        } finally {
+            writers.forEach(BatchWriter::close);
+        }
+        if(t != null) {
+            exceptionListener.accept(t);
+        } else {
+            logger.info("onComplete: "+tableDefinition.getName()+" cnt: "+count()+" writers: "+writers.size()+" result: "+ok);
+            completionListener.accept(ok);
+        }
+    }
+
+    private long count() {
+        return writers.stream().mapToLong(BatchWriter::getCount).sum();
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.TreeMap;
+
+public class FileCheckpointStore implements CheckpointStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileCheckpointStore.class);
+
+    private final Path path;
+    private final Properties properties = new Properties();
+
+    public FileCheckpointStore(Path path) {
+        this.path = path;
+        if(Files.exists(path)) {
+            try(InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Optional<String> get(String key) {
+        return Optional.ofNullable(properties.getProperty(key));
+    }
+
+    @Override
+    public synchronized void put(String key, String value) {
+        properties.setProperty(key, value);
+        save();
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        if(properties.remove(key) != null) {
+            save();
+        }
+    }
+
+    @Override
+    public synchronized Map<String, String> entries(String prefix) {
+        Map<String, String> tmp = new TreeMap<>();
+        properties.stringPropertyNames().stream().filter(k -> k.startsWith(prefix)).forEach(k -> tmp.put(k, properties.getProperty(k)));
+        return tmp;
+    }
+
+    // written to a sibling file and moved into place so a crash never leaves a truncated checkpoint behind
+    private void save() {
+        Path tmp = path.resolveSibling(path.getFileName()+".tmp");
+        try {
+            try(OutputStream out = Files.newOutputStream(tmp)) {
+                properties.store(out, "dbstreamer checkpoints");
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileCheckpointStore("+path+")";
+    }
+}
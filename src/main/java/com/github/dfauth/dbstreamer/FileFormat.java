@@ -0,0 +1,60 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// how tables are exported to, and imported from, files in a directory: one file per chunk named TABLE.nnnn.suffix
+public interface FileFormat {
+
+    Logger logger = LoggerFactory.getLogger(FileFormat.class);
+
+    FileFormat SEGMENT = new Segment.Format();
+
+    String getSuffix();
+
+    Subscriber<RowBatch> writerFor(Path file, TableDefinition tableDef, TableMetrics metrics, Consumer<Boolean> completionListener, Consumer<Throwable> exceptionListener);
+
+    // a file may be read as several independent parts
+    List<Publisher<RowBatch>> readersFor(Path file, TableDefinition tableDef, int batchSize, Executor executor, TableMetrics metrics);
+
+    default Path fileFor(Path dir, String table, int index) {
+        return dir.resolve(String.format("%s.%04d%s", table, index, getSuffix()));
+    }
+
+    default List<Path> filesFor(Path dir, String table) {
+        Pattern pattern = Pattern.compile(Pattern.quote(table)+"\\.\\d{4,}"+Pattern.quote(getSuffix()), Pattern.CASE_INSENSITIVE);
+        if(!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+        try(Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> pattern.matcher(p.getFileName().toString()).matches()).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    default void remove(Path dir, String table) {
+        for(Path p : filesFor(dir, table)) {
+            try {
+                Files.delete(p);
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
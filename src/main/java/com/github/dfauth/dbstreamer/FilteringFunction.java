@@ -19,12 +19,13 @@ public class FilteringFunction<T,U> implements Function<T, UnaryOperator<U>> {
         this.f = f;
     }
 
+    // null where the filter does not match, so callers can tell no transform from one that happens to change nothing
     @Override
     public UnaryOperator<U> apply(T t) {
         if(this.filter.test(t)) {
             return f;
         } else {
-            return UnaryOperator.identity();
+            return null;
         }
     }
 }
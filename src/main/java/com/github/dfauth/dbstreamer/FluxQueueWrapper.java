@@ -6,65 +6,214 @@ import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.SynchronousSink;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.function.Consumer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class FluxQueueWrapper<R> implements Subscriber<R> {
+public class FluxQueueWrapper<R> implements Subscriber<R>, Publisher<R> {
 
     private static final Logger logger = LoggerFactory.getLogger(FluxQueueWrapper.class);
+    public static final int DEFAULT_PREFETCH = 10000;
 
     private final Publisher<R> publisher;
-    BlockingQueue<Consumer<SynchronousSink<R>>> queue = new LinkedBlockingDeque<>(5000000);
-    private Subscription subscription;
+    private final int limit;
+    private final SpscRingBuffer<R> queue;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean signalled = new AtomicBoolean();
+    private volatile Subscription subscription;
+    private volatile Subscriber<? super R> subscriber;
+    private volatile boolean done = false;
+    private volatile boolean cancelled = false;
+    private Throwable error;
+    private int consumed = 0;
 
     public FluxQueueWrapper(Publisher<R> publisher) {
+        this(publisher, DEFAULT_PREFETCH);
+    }
+
+    public FluxQueueWrapper(Publisher<R> publisher, int prefetch) {
+        this(publisher, prefetch, ForkJoinPool.commonPool());
+    }
+
+    public FluxQueueWrapper(Publisher<R> publisher, int prefetch, Executor executor) {
         this.publisher = publisher;
+        this.executor = executor;
+        this.queue = new SpscRingBuffer<>(prefetch);
+        this.limit = Math.max(1, queue.capacity() / 2);
     }
 
     public Flux<R> asFlux() {
-        Executors.newSingleThreadExecutor().submit(run());
-        return Flux.generate(s -> {
-            try {
-                Consumer<SynchronousSink<R>> cmd = queue.take();
-//                logger.info("dequeued: "+cmd);
-                cmd.accept(s);
-            } catch (InterruptedException e) {
-                logger.error(e.getMessage(), e);
-                throw new RuntimeException(e);
-            }
-        });
+        return Flux.from(this);
     }
 
-    private Runnable run() {
-        return () -> {
-            publisher.subscribe(this);
-        };
+    @Override
+    public void subscribe(Subscriber<? super R> s) {
+        if(!subscribed.compareAndSet(false, true)) {
+            s.onError(new IllegalStateException(this+" only supports a single subscriber"));
+            return;
+        }
+        this.subscriber = s;
+        s.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                if(n <= 0) {
+                    cancel();
+                    s.onError(new IllegalArgumentException("non-positive request("+n+")"));
+                    return;
+                }
+                requested.accumulateAndGet(n, (current, m) -> current + m < 0 ? Long.MAX_VALUE : current + m);
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                Subscription upstream = subscription;
+                if(upstream != null) {
+                    upstream.cancel();
+                }
+                drain();
+            }
+        });
+        publisher.subscribe(this);
     }
 
     @Override
     public void onSubscribe(Subscription s) {
         this.subscription = s;
-        subscription.request(Long.MAX_VALUE);
+        if(cancelled) {
+            s.cancel();
+        } else {
+            s.request(queue.capacity());
+        }
     }
 
     @Override
     public void onNext(R r) {
-//        logger.info("enqueue r: "+r);
-        queue.offer(s -> s.next(r));
+        if(!queue.offer(r)) {
+            // upstream only ever has as much demand as there are free slots, so this is a protocol violation
+            subscription.cancel();
+            onError(new IllegalStateException(this+" overflow, upstream ignored demand"));
+            return;
+        }
+        drain();
     }
 
     @Override
     public void onError(Throwable t) {
-        queue.offer(s -> s.error(t));
+        error = t;
+        done = true;
+        drain();
     }
 
     @Override
     public void onComplete() {
-        queue.offer(s -> s.complete());
+        done = true;
+        drain();
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    private void drain() {
+        if(wip.getAndIncrement() == 0) {
+            try {
+                executor.execute(this::drainLoop);
+            } catch (RejectedExecutionException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            drainQueue();
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    // a drain that could not start, or broke off, would otherwise leave wip raised and the stream never terminated.
+    // only called while wip is held, so the consumer side of the ring buffer is still single threaded
+    private void fail(Throwable t) {
+        logger.error(t.getMessage(), t);
+        cancelled = true;
+        Subscription upstream = subscription;
+        if(upstream != null) {
+            upstream.cancel();
+        }
+        if(signalled.compareAndSet(false, true)) {
+            subscriber.onError(t);
+        }
+        terminate();
+        wip.set(0);
+    }
+
+    // runs serially (guarded by wip) on the executor, so the consumer side of the ring buffer has a single thread at a time
+    private void drainQueue() {
+        int missed = 1;
+        while(true) {
+            if(cancelled) {
+                terminate();
+                return;
+            }
+            long r = requested.get();
+            long e = 0;
+            while(e != r && !cancelled) {
+                boolean d = done;
+                int n = queue.drain(subscriber::onNext, (int) Math.min(r - e, limit - consumed));
+                if(n == 0) {
+                    if(d && queue.isEmpty()) {
+                        signalTerminal();
+                        return;
+                    }
+                    break;
+                }
+                e += n;
+                consumed += n;
+                if(consumed == limit) {
+                    consumed = 0;
+                    subscription.request(limit);
+                }
+            }
+            if(e == r && done && queue.isEmpty()) {
+                signalTerminal();
+                return;
+            }
+            if(e != 0 && r != Long.MAX_VALUE) {
+                requested.addAndGet(-e);
+            }
+            missed = wip.addAndGet(-missed);
+            if(missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void signalTerminal() {
+        if(!signalled.compareAndSet(false, true)) {
+            return;
+        }
+        if(error != null) {
+            subscriber.onError(error);
+        } else {
+            subscriber.onComplete();
+        }
+        terminate();
+    }
+
+    private void terminate() {
+        while(queue.poll() != null) {
+            // release any rows still held
+        }
     }
 
     @Override
@@ -0,0 +1,112 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Objects;
+import java.util.Optional;
+
+// the range of an incrementally copied column covered by one run: rows above the previously recorded mark,
+// up to the maximum observed when the run started. rows arriving later are left for the next run
+public class HighWaterMark {
+
+    private static final Logger logger = LoggerFactory.getLogger(HighWaterMark.class);
+    private static final String PREFIX = "hwm:";
+    private static final String PENDING_PREFIX = "hwm-pending:";
+
+    private final TableDefinition tableDef;
+    private final ColumnDefinition column;
+    private final Object previous;
+    private final Object current;
+
+    HighWaterMark(TableDefinition tableDef, ColumnDefinition column, Object previous, Object current) {
+        this.tableDef = tableDef;
+        this.column = column;
+        this.previous = previous;
+        this.current = current;
+    }
+
+    public static HighWaterMark of(TableDefinition tableDef, ColumnDefinition column, CheckpointStore store, SourceDatabase source) {
+        Object previous = store.get(keyOf(tableDef)).map(v -> parse(column, v)).orElse(null);
+        // an interrupted resumable run pinned its upper bound, reuse it so its recorded chunks still apply
+        Optional<Object> pending = store.get(PENDING_PREFIX+tableDef.getName()).map(v -> parse(column, v));
+        Object current = pending.isPresent() ? pending.get() : source.max(tableDef, column).orElse(null);
+        return new HighWaterMark(tableDef, column, previous, current);
+    }
+
+    static String keyOf(TableDefinition tableDef) {
+        return PREFIX+tableDef.getName();
+    }
+
+    public boolean isUpToDate() {
+        return current == null || Objects.equals(previous, current);
+    }
+
+    public Chunk restrict(Chunk chunk) {
+        if(previous == null) {
+            // the first run copies everything present at the start, including rows the mark cannot order
+            return chunk.restrict("hwm::"+format(current), String.format("%s <= ? or %s is null", column.getName(), column.getName()), current);
+        }
+        return chunk.restrict("hwm:"+format(previous)+":"+format(current), String.format("%s > ? and %s <= ?", column.getName(), column.getName()), previous, current);
+    }
+
+    public void pin(CheckpointStore store) {
+        if(current != null) {
+            store.put(PENDING_PREFIX+tableDef.getName(), format(current));
+        }
+    }
+
+    public void commit(CheckpointStore store) {
+        if(current != null) {
+            store.put(keyOf(tableDef), format(current));
+            store.remove(PENDING_PREFIX+tableDef.getName());
+            logger.info("recorded high water mark "+column.getName()+"="+format(current)+" for "+tableDef.getName());
+        }
+    }
+
+    public Object getPrevious() {
+        return previous;
+    }
+
+    public Object getCurrent() {
+        return current;
+    }
+
+    static String format(Object v) {
+        return v == null ? "" : v.toString();
+    }
+
+    static Object parse(ColumnDefinition column, String v) {
+        switch(column.getDataType().sqlType()) {
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return Integer.valueOf(v);
+            case Types.BIGINT:
+                return Long.valueOf(v);
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return new BigDecimal(v);
+            case Types.DOUBLE:
+                return Double.valueOf(v);
+            case Types.DATE:
+                return Date.valueOf(v);
+            case Types.TIME:
+                return Time.valueOf(v);
+            case Types.TIMESTAMP:
+                return Timestamp.valueOf(v);
+            default:
+                return v;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HighWaterMark("+tableDef.getName()+"."+column.getName()+", "+format(previous)+" -> "+format(current)+")";
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.dfauth.dbstreamer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// power of two buckets of nanoseconds: recording is a couple of atomic increments and never allocates,
+// percentiles are accurate to within a factor of two which is plenty to tell 1ms from 100ms
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long v = Math.max(0, nanos);
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(v | 1));
+        count.increment();
+        total.add(v);
+        long m;
+        while(v > (m = max.get()) && !max.compareAndSet(m, v)) {
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    // the upper bound of the bucket holding the given fraction of samples
+    public long percentile(double p) {
+        long n = count.sum();
+        if(n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p * n);
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            seen += buckets.get(i);
+            if(seen >= rank) {
+                return Math.min(max.get(), i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+            }
+        }
+        return max.get();
+    }
+
+    public Snapshot snapshot() {
+        long n = count.sum();
+        return new Snapshot(n, n == 0 ? 0 : micros(total.sum() / n), micros(percentile(0.5)), micros(percentile(0.9)), micros(percentile(0.99)), micros(max.get()));
+    }
+
+    public void reset() {
+        for(int i=0; i<BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    public static class Snapshot {
+
+        private final long count;
+        private final long meanMicros;
+        private final long p50Micros;
+        private final long p90Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+
+        public Snapshot(long count, long meanMicros, long p50Micros, long p90Micros, long p99Micros, long maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanMicros() {
+            return meanMicros;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP90Micros() {
+            return p90Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "Latency(count="+count+", mean="+meanMicros+"us, p50="+p50Micros+"us, p90="+p90Micros+"us, p99="+p99Micros+"us, max="+maxMicros+"us)";
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.dfauth.dbstreamer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.Arrays;
+
+// lob content is copied off the connection through a fixed size buffer, so no driver side locator outlives the
+// row it was read from and no driver buffers more than a chunk of it at a time
+class Lobs {
+
+    static final int CHUNK = 1 << 16;
+
+    // one chunk buffer per reading thread, so a small lob costs an array of its own size and nothing more
+    private static final ThreadLocal<byte[]> byteChunk = ThreadLocal.withInitial(() -> new byte[CHUNK]);
+    private static final ThreadLocal<char[]> charChunk = ThreadLocal.withInitial(() -> new char[CHUNK]);
+
+    static Blob readBlob(InputStream in) throws SQLException {
+        if(in == null) {
+            return null;
+        }
+        try(InputStream tmp = in) {
+            byte[] chunk = byteChunk.get();
+            int count = fill(tmp, chunk);
+            if(count < CHUNK) {
+                return new Bytes(Arrays.copyOf(chunk, count));
+            }
+            // larger than a chunk, read straight into an array that doubles as it fills and is trimmed once
+            byte[] out = Arrays.copyOf(chunk, CHUNK << 1);
+            int n;
+            while((n = tmp.read(out, count, out.length - count)) != -1) {
+                count += n;
+                if(count == out.length) {
+                    out = Arrays.copyOf(out, out.length << 1);
+                }
+            }
+            return new Bytes(out.length == count ? out : Arrays.copyOf(out, count));
+        } catch (IOException e) {
+            throw new SQLException("unable to read blob", e);
+        }
+    }
+
+    static String readClob(Reader in) throws SQLException {
+        if(in == null) {
+            return null;
+        }
+        try(Reader tmp = in) {
+            char[] chunk = charChunk.get();
+            int count = fill(tmp, chunk);
+            if(count < CHUNK) {
+                return new String(chunk, 0, count);
+            }
+            StringBuilder out = new StringBuilder(CHUNK << 1);
+            out.append(chunk, 0, count);
+            while((count = fill(tmp, chunk)) > 0) {
+                out.append(chunk, 0, count);
+            }
+            return out.toString();
+        } catch (IOException e) {
+            throw new SQLException("unable to read clob", e);
+        }
+    }
+
+    // reads until the chunk is full or the stream ends, returning the bytes read
+    private static int fill(InputStream in, byte[] chunk) throws IOException {
+        int count = 0;
+        int n;
+        while(count < chunk.length && (n = in.read(chunk, count, chunk.length - count)) != -1) {
+            count += n;
+        }
+        return count;
+    }
+
+    private static int fill(Reader in, char[] chunk) throws IOException {
+        int count = 0;
+        int n;
+        while(count < chunk.length && (n = in.read(chunk, count, chunk.length - count)) != -1) {
+            count += n;
+        }
+        return count;
+    }
+
+    // wraps bytes nobody else holds on to as a blob, without the defensive copy SerialBlob makes
+    static Blob blob(byte[] bytes) {
+        return new Bytes(bytes);
+    }
+
+    // the heap held by a string or lob value once read
+    static long sizeOf(Object v) throws SQLException {
+        if(v instanceof Blob) {
+            return ((Blob) v).length();
+        } else if(v instanceof String) {
+            return 2L * ((String) v).length();
+        }
+        return 0;
+    }
+
+    static boolean isLob(int sqlType) {
+        return sqlType == Types.BLOB || sqlType == Types.CLOB;
+    }
+
+    // a read only blob over an array, handed out as is when asked for the whole content
+    private static class Bytes implements Blob {
+
+        private final byte[] bytes;
+
+        private Bytes(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long length() {
+            return bytes.length;
+        }
+
+        @Override
+        public byte[] getBytes(long pos, int n) throws SQLException {
+            if(pos < 1 || pos > bytes.length + 1L || n < 0) {
+                throw new SQLException("invalid position "+pos+" or length "+n+" in a blob of "+bytes.length+" bytes");
+            }
+            int from = (int) pos - 1;
+            int to = from + Math.min(n, bytes.length - from);
+            return from == 0 && to == bytes.length ? bytes : Arrays.copyOfRange(bytes, from, to);
+        }
+
+        @Override
+        public InputStream getBinaryStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public InputStream getBinaryStream(long pos, long n) throws SQLException {
+            if(pos < 1 || n < 0 || pos - 1 + n > bytes.length) {
+                throw new SQLException("invalid position "+pos+" or length "+n+" in a blob of "+bytes.length+" bytes");
+            }
+            return new ByteArrayInputStream(bytes, (int) pos - 1, (int) n);
+        }
+
+        @Override
+        public long position(byte[] pattern, long start) throws SQLException {
+            throw new SQLFeatureNotSupportedException("blob search is not supported");
+        }
+
+        @Override
+        public long position(Blob pattern, long start) throws SQLException {
+            throw new SQLFeatureNotSupportedException("blob search is not supported");
+        }
+
+        @Override
+        public int setBytes(long pos, byte[] bytes) throws SQLException {
+            throw new SQLFeatureNotSupportedException("blob is read only");
+        }
+
+        @Override
+        public int setBytes(long pos, byte[] bytes, int offset, int len) throws SQLException {
+            throw new SQLFeatureNotSupportedException("blob is read only");
+        }
+
+        @Override
+        public OutputStream setBinaryStream(long pos) throws SQLException {
+            throw new SQLFeatureNotSupportedException("blob is read only");
+        }
+
+        @Override
+        public void truncate(long len) throws SQLException {
+            throw new SQLFeatureNotSupportedException("blob is read only");
+        }
+
+        @Override
+        public void free() {
+        }
+    }
+}
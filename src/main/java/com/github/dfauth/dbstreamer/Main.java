@@ -7,6 +7,9 @@ import org.apache.commons.cli.Options;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Paths;
+import java.util.List;
+
 public class Main {
 
     private static Logger logger = LoggerFactory.getLogger(Main.class);
@@ -23,6 +26,16 @@ public class Main {
         options.addOption("sourceJdbcUsername", true, "source JDBC username");
         options.addOption("sourceJdbcPassword", true, "source JDBC password");
         options.addOption("sourceJdbcDriver", true, "source JDBC driver");
+
+        options.addOption("chunks", true, "number of key range chunks to read each table in");
+        options.addOption("parallelism", true, "number of tables to copy concurrently");
+        options.addOption("ioThreads", true, "maximum threads shared by readers and writers, defaults to a multiple of parallelism");
+        options.addOption("fetchSize", true, "number of rows fetched per source round trip");
+        options.addOption("maxBatchBytes", true, "estimated bytes after which a batch is written before it is full");
+        options.addOption("verify", false, "compare per key range digests of source and target instead of copying");
+        options.addOption("exportTo", true, "directory to write the source tables to, one file per chunk, no target is needed");
+        options.addOption("importFrom", true, "directory of exported files to load into the target, no source is needed");
+        options.addOption("format", true, "file format of exportTo and importFrom, segment (the default), csv or tsv");
     }
 
     public static void main(String[] args) {
@@ -45,16 +58,44 @@ public class Main {
             target.withUsername(line.getOptionValue("targetJdbcUsername"));
             target.withPassword(line.getOptionValue("targetJdbcPassword"));
             
-            new DbStreamer(source.build(), target.build()).stream();
+            DbStreamer streamer = new DbStreamer(source.build(), target.build())
+                    .withChunks(Integer.parseInt(line.getOptionValue("chunks", "1")))
+                    .withReadOptions(ReadOptions.DEFAULT
+                            .withFetchSize(Integer.parseInt(line.getOptionValue("fetchSize", String.valueOf(ReadOptions.DEFAULT_FETCH_SIZE))))
+                            .withMaxBatchBytes(Long.parseLong(line.getOptionValue("maxBatchBytes", String.valueOf(ReadOptions.DEFAULT_MAX_BATCH_BYTES)))))
+                    .withTableParallelism(Integer.parseInt(line.getOptionValue("parallelism", String.valueOf(ExecutionEngine.DEFAULT_TABLE_PARALLELISM))))
+                    .withIoThreads(Integer.parseInt(line.getOptionValue("ioThreads", "0")));
+            if(line.hasOption("exportTo")) {
+                streamer.exportTo(Paths.get(line.getOptionValue("exportTo")), formatOf(line.getOptionValue("format", "segment")));
+            } else if(line.hasOption("importFrom")) {
+                streamer.importFrom(Paths.get(line.getOptionValue("importFrom")), formatOf(line.getOptionValue("format", "segment")));
+            } else if(line.hasOption("verify")) {
+                List<Verifier.Mismatch> mismatches = streamer.verify(Integer.parseInt(line.getOptionValue("chunks", String.valueOf(Verifier.DEFAULT_RANGES))));
+                mismatches.forEach(System.out::println);
+                if(!mismatches.isEmpty()) {
+                    // a script running the verification tells a difference apart from a clean run by the exit status
+                    System.exit(1);
+                }
+            } else {
+                streamer.stream();
+            }
 
-            Thread.sleep(10 * 1000);
-            
         } catch (org.apache.commons.cli.ParseException e) {
             logger.error(e.getMessage(), e);
             throw new RuntimeException(e);
-        } catch (InterruptedException e) {
-            logger.error(e.getMessage(), e);
-            throw new RuntimeException(e);
+        }
+    }
+
+    private static FileFormat formatOf(String name) {
+        switch(name.toLowerCase()) {
+            case "segment":
+                return FileFormat.SEGMENT;
+            case "csv":
+                return CsvFormat.DEFAULT;
+            case "tsv":
+                return CsvFormat.DEFAULT.withDelimiter('\t');
+            default:
+                throw new IllegalArgumentException("unknown format "+name);
         }
     }
 }
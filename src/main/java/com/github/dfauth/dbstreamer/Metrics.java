@@ -0,0 +1,68 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class Metrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+    public static final String DOMAIN = "com.github.dfauth.dbstreamer";
+    private static volatile Metrics platform;
+
+    private final MBeanServer server;
+    private final TableMetrics global;
+    private final ConcurrentMap<String, TableMetrics> tables = new ConcurrentHashMap<>();
+
+    // server may be null, the metrics are then only reachable through this object
+    public Metrics(MBeanServer server) {
+        this.server = server;
+        this.global = register(new TableMetrics("global", null), "type=Global");
+    }
+
+    public static Metrics platform() {
+        if(platform == null) {
+            synchronized (Metrics.class) {
+                if(platform == null) {
+                    platform = new Metrics(ManagementFactory.getPlatformMBeanServer());
+                }
+            }
+        }
+        return platform;
+    }
+
+    public TableMetrics getGlobal() {
+        return global;
+    }
+
+    // look up once per chunk and keep the reference, the hot path then only touches counters
+    public TableMetrics forTable(String table) {
+        return tables.computeIfAbsent(table, t -> register(new TableMetrics(t, global), "type=Table,name="+ObjectName.quote(t)));
+    }
+
+    public Collection<TableMetrics> getTables() {
+        return tables.values();
+    }
+
+    private TableMetrics register(TableMetrics metrics, String properties) {
+        if(server != null) {
+            try {
+                ObjectName name = new ObjectName(DOMAIN+":"+properties);
+                if(server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(metrics, name);
+            } catch (JMException e) {
+                logger.warn("unable to register "+metrics.getName()+" metrics: "+e.getMessage());
+            }
+        }
+        return metrics;
+    }
+}
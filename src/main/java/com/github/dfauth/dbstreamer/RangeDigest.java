@@ -0,0 +1,118 @@
+package com.github.dfauth.dbstreamer;
+
+import java.math.BigDecimal;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+// an order independent fingerprint of a set of rows: the row count and the sum of the rows' hashes.
+// digests are only comparable when both were computed the same way, client side or by the same dialect
+public class RangeDigest {
+
+    private static final long NULL = 0x9E3779B97F4A7C15L;
+
+    private long count;
+    private long digest;
+
+    public RangeDigest(long count, long digest) {
+        this.count = count;
+        this.digest = digest;
+    }
+
+    public static RangeDigest empty() {
+        return new RangeDigest(0, 0);
+    }
+
+    void add(RowBatch batch) {
+        for(int row=0; row<batch.size(); row++) {
+            digest += hash(batch, row);
+        }
+        count += batch.size();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getDigest() {
+        return digest;
+    }
+
+    static long hash(RowBatch batch, int row) {
+        long h = 1125899906842597L;
+        for(int col=0; col<batch.width(); col++) {
+            long v;
+            if(batch.isNull(col, row)) {
+                v = NULL;
+            } else {
+                switch(batch.kind(col)) {
+                    case RowBatch.INT:
+                        v = batch.getInt(col, row);
+                        break;
+                    case RowBatch.LONG:
+                        v = batch.getLong(col, row);
+                        break;
+                    case RowBatch.DOUBLE:
+                        v = Double.doubleToLongBits(batch.getDouble(col, row));
+                        break;
+                    default:
+                        v = hashOf(batch.getObject(col, row));
+                }
+            }
+            h = 31 * h + v;
+        }
+        return mix(h);
+    }
+
+    private static long hashOf(Object v) {
+        if(v instanceof BigDecimal) {
+            // 1.50 and 1.5 are the same value whatever scale each side declares
+            return ((BigDecimal) v).stripTrailingZeros().hashCode();
+        } else if(v instanceof Timestamp) {
+            return ((Timestamp) v).getTime() * 31 + ((Timestamp) v).getNanos();
+        } else if(v instanceof byte[]) {
+            return Arrays.hashCode((byte[]) v);
+        } else if(v instanceof Blob) {
+            try {
+                Blob blob = (Blob) v;
+                return Arrays.hashCode(blob.getBytes(1, (int) Math.min(Integer.MAX_VALUE, blob.length())));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return v.hashCode();
+    }
+
+    // summing raw polynomial hashes would let differences cancel out, the finalizer spreads every bit first
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof RangeDigest)) {
+            return false;
+        }
+        RangeDigest other = (RangeDigest) o;
+        return count == other.count && digest == other.digest;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(count) * 31 + Long.hashCode(digest);
+    }
+
+    @Override
+    public String toString() {
+        return "RangeDigest(count="+count+", digest="+Long.toHexString(digest)+")";
+    }
+}
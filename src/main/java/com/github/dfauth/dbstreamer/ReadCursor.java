@@ -0,0 +1,89 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// the subscription of a publisher that reads on a thread of its own: the first request starts the read, which
+// then parks between batches until there is demand for the next one
+class ReadCursor implements Subscription {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadCursor.class);
+
+    private final String name;
+    private final Subscriber<? super RowBatch> subscriber;
+    private final Executor executor;
+    private final Consumer<ReadCursor> reader;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean cancelled = false;
+
+    ReadCursor(String name, Subscriber<? super RowBatch> subscriber, Executor executor, Consumer<ReadCursor> reader) {
+        this.name = name;
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.reader = reader;
+    }
+
+    @Override
+    public void request(long n) {
+        if(n <= 0) {
+            cancel();
+            subscriber.onError(new IllegalArgumentException("non-positive request("+n+") for "+name));
+            return;
+        }
+        demand.accumulateAndGet(n, (current, m) -> current + m < 0 ? Long.MAX_VALUE : current + m);
+        if(started.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> reader.accept(this));
+            } catch (RejectedExecutionException e) {
+                // no reader will ever run, the stream fails rather than waiting for one
+                logger.error(e.getMessage(), e);
+                cancelled = true;
+                subscriber.onError(e);
+            }
+        } else {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    boolean awaitDemand() {
+        try {
+            synchronized (this) {
+                while(demand.get() == 0 && !cancelled) {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error(e.getMessage(), e);
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        }
+        if(cancelled) {
+            return false;
+        }
+        demand.getAndUpdate(d -> d == Long.MAX_VALUE ? d : d - 1);
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.dfauth.dbstreamer;
+
+public class ReadOptions {
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    public static final long DEFAULT_MAX_BATCH_BYTES = 64L << 20;
+    public static final ReadOptions DEFAULT = new ReadOptions(DEFAULT_FETCH_SIZE, true);
+
+    private final int fetchSize;
+    private final boolean streaming;
+    private final long maxBatchBytes;
+
+    public ReadOptions(int fetchSize, boolean streaming) {
+        this(fetchSize, streaming, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    public ReadOptions(int fetchSize, boolean streaming, long maxBatchBytes) {
+        this.fetchSize = fetchSize;
+        this.streaming = streaming;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public static ReadOptions streaming(int fetchSize) {
+        return new ReadOptions(fetchSize, true);
+    }
+
+    public static ReadOptions buffered(int fetchSize) {
+        return new ReadOptions(fetchSize, false);
+    }
+
+    public ReadOptions withFetchSize(int fetchSize) {
+        return new ReadOptions(fetchSize, streaming, maxBatchBytes);
+    }
+
+    public ReadOptions withStreaming(boolean streaming) {
+        return new ReadOptions(fetchSize, streaming, maxBatchBytes);
+    }
+
+    // a batch is handed on before it is full once the rows read into it are estimated at this many bytes, which
+    // mostly matters for wide strings and lobs
+    public ReadOptions withMaxBatchBytes(long maxBatchBytes) {
+        return new ReadOptions(fetchSize, streaming, maxBatchBytes);
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadOptions(fetchSize="+fetchSize+", streaming="+streaming+", maxBatchBytes="+maxBatchBytes+")";
+    }
+}
@@ -0,0 +1,279 @@
+package com.github.dfauth.dbstreamer;
+
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RowBatch {
+
+    public static final int INT = 0;
+    public static final int LONG = 1;
+    public static final int DOUBLE = 2;
+    public static final int OBJECT = 3;
+
+    private final TableDefinition tableDef;
+    private final ColumnDefinition[] columns;
+    private final int capacity;
+    private final int[] kinds;
+    private final int[][] ints;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final Object[][] objects;
+    private final long[][] nulls;
+    private int size = 0;
+
+    RowBatch(TableDefinition tableDef, ColumnDefinition[] columns, int capacity) {
+        this.tableDef = tableDef;
+        this.columns = columns;
+        this.capacity = capacity;
+        this.kinds = new int[columns.length];
+        this.ints = new int[columns.length][];
+        this.longs = new long[columns.length][];
+        this.doubles = new double[columns.length][];
+        this.objects = new Object[columns.length][];
+        this.nulls = new long[columns.length][(capacity + 63) >>> 6];
+        for(int c=0; c<columns.length; c++) {
+            kinds[c] = kindOf(columns[c].getDataType().sqlType());
+            switch(kinds[c]) {
+                case INT:
+                    ints[c] = new int[capacity];
+                    break;
+                case LONG:
+                    longs[c] = new long[capacity];
+                    break;
+                case DOUBLE:
+                    doubles[c] = new double[capacity];
+                    break;
+                default:
+                    objects[c] = new Object[capacity];
+            }
+        }
+    }
+
+    public static int kindOf(int sqlType) {
+        switch(sqlType) {
+            case Types.INTEGER:
+                return INT;
+            case Types.BIGINT:
+                return LONG;
+            case Types.DOUBLE:
+                return DOUBLE;
+            default:
+                return OBJECT;
+        }
+    }
+
+    public TableDefinition getTableDefinition() {
+        return tableDef;
+    }
+
+    public String getTable() {
+        return tableDef.getName();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int width() {
+        return columns.length;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int kind(int col) {
+        return kinds[col];
+    }
+
+    public ColumnDefinition getColumnDefinition(int col) {
+        return columns[col];
+    }
+
+    // claims the next row, whose cells must then all be set or nulled
+    public int addRow() {
+        int row = size++;
+        for(int c=0; c<columns.length; c++) {
+            nulls[c][row >>> 6] &= ~(1L << row);
+        }
+        return row;
+    }
+
+    public void clear() {
+        for(int c=0; c<columns.length; c++) {
+            if(objects[c] != null) {
+                Arrays.fill(objects[c], 0, size, null);
+            }
+        }
+        size = 0;
+    }
+
+    public boolean isNull(int col, int row) {
+        return (nulls[col][row >>> 6] & (1L << row)) != 0;
+    }
+
+    public void setNull(int col, int row) {
+        nulls[col][row >>> 6] |= 1L << row;
+        if(objects[col] != null) {
+            objects[col][row] = null;
+        }
+    }
+
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    public void setInt(int col, int row, int v) {
+        ints[col][row] = v;
+    }
+
+    public long getLong(int col, int row) {
+        return longs[col][row];
+    }
+
+    public void setLong(int col, int row, long v) {
+        longs[col][row] = v;
+    }
+
+    public double getDouble(int col, int row) {
+        return doubles[col][row];
+    }
+
+    public void setDouble(int col, int row, double v) {
+        doubles[col][row] = v;
+    }
+
+    public Object getObject(int col, int row) {
+        return objects[col][row];
+    }
+
+    public void setObject(int col, int row, Object v) {
+        objects[col][row] = v;
+    }
+
+    // direct column access for bulk decoders, which fill the arrays and null masks and then set the size
+    int[] intColumn(int col) {
+        return ints[col];
+    }
+
+    long[] longColumn(int col) {
+        return longs[col];
+    }
+
+    double[] doubleColumn(int col) {
+        return doubles[col];
+    }
+
+    long[] nullMask(int col) {
+        return nulls[col];
+    }
+
+    void setSize(int size) {
+        if(size > capacity) {
+            throw new IllegalArgumentException("size "+size+" exceeds capacity "+capacity+" of "+this);
+        }
+        this.size = size;
+    }
+
+    // boxed access, for the transform stage and anything else off the hot path
+    public Object get(int col, int row) {
+        if(isNull(col, row)) {
+            return null;
+        }
+        switch(kinds[col]) {
+            case INT:
+                return ints[col][row];
+            case LONG:
+                return longs[col][row];
+            case DOUBLE:
+                return doubles[col][row];
+            default:
+                return objects[col][row];
+        }
+    }
+
+    public void set(int col, int row, Object v) {
+        if(v == null) {
+            setNull(col, row);
+            return;
+        }
+        nulls[col][row >>> 6] &= ~(1L << row);
+        switch(kinds[col]) {
+            case INT:
+                ints[col][row] = ((Number) v).intValue();
+                break;
+            case LONG:
+                longs[col][row] = ((Number) v).longValue();
+                break;
+            case DOUBLE:
+                doubles[col][row] = ((Number) v).doubleValue();
+                break;
+            default:
+                objects[col][row] = v;
+        }
+    }
+
+    // a rough payload size, used to budget batches rather than to account memory exactly
+    public long estimateBytes() {
+        long bytes = (long) size * (columns.length + 7) / 8;
+        for(int c=0; c<columns.length; c++) {
+            switch(kinds[c]) {
+                case INT:
+                    bytes += 4L * size;
+                    break;
+                case LONG:
+                case DOUBLE:
+                    bytes += 8L * size;
+                    break;
+                default:
+                    for(int row=0; row<size; row++) {
+                        bytes += estimateBytes(objects[c][row]);
+                    }
+            }
+        }
+        return bytes;
+    }
+
+    private static long estimateBytes(Object v) {
+        if(v == null) {
+            return 0;
+        } else if(v instanceof String) {
+            return 2L * ((String) v).length();
+        } else if(v instanceof byte[]) {
+            return ((byte[]) v).length;
+        } else if(v instanceof Blob) {
+            try {
+                return ((Blob) v).length();
+            } catch (SQLException e) {
+                return 0;
+            }
+        } else {
+            return 16;
+        }
+    }
+
+    public TableRowUpdate getRow(int row) {
+        List<ColumnUpdate> updates = new ArrayList<>(columns.length);
+        for(int c=0; c<columns.length; c++) {
+            updates.add(new ColumnUpdate(columns[c], get(c, row)));
+        }
+        return new TableRowUpdate(tableDef, updates);
+    }
+
+    @Override
+    public String toString() {
+        return "RowBatch("+tableDef.getName()+", "+size+"/"+capacity+")";
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+public class RowCodec {
+
+    private static final Logger logger = LoggerFactory.getLogger(RowCodec.class);
+
+    private final TableDefinition tableDef;
+    private final ColumnDefinition[] columns;
+    private final DataType[] dataTypes;
+    private final int[] ordinals;
+    private final int[] sqlTypes;
+    private final int[] kinds;
+    private final boolean[] variable;
+    private final long fixedBytes;
+
+    private RowCodec(TableDefinition tableDef) {
+        this.tableDef = tableDef;
+        this.columns = tableDef.getColumnDefs().toArray(new ColumnDefinition[0]);
+        this.dataTypes = new DataType[columns.length];
+        this.ordinals = new int[columns.length];
+        this.sqlTypes = new int[columns.length];
+        this.kinds = new int[columns.length];
+        this.variable = new boolean[columns.length];
+        long bytes = (columns.length + 7) / 8;
+        for(int i=0; i<columns.length; i++) {
+            dataTypes[i] = columns[i].getDataType();
+            ordinals[i] = columns[i].getOrdinal();
+            sqlTypes[i] = dataTypes[i].sqlType();
+            kinds[i] = RowBatch.kindOf(sqlTypes[i]);
+            variable[i] = sqlTypes[i] == Types.VARCHAR || Lobs.isLob(sqlTypes[i]);
+            bytes += kinds[i] == RowBatch.INT ? 4 : kinds[i] != RowBatch.OBJECT ? 8 : variable[i] ? 0 : 16;
+        }
+        this.fixedBytes = bytes;
+    }
+
+    public static RowCodec compile(TableDefinition tableDef) {
+        RowCodec codec = new RowCodec(tableDef);
+        logger.info("compiled row codec for "+tableDef+" with "+codec.columns.length+" columns");
+        return codec;
+    }
+
+    public int width() {
+        return columns.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void bind(PreparedStatement pstmt, List<ColumnUpdate> updates) throws SQLException {
+        for(int i=0; i<columns.length; i++) {
+            Object v = updates.get(i).getResult();
+            if(v == null) {
+                pstmt.setNull(i + 1, sqlTypes[i]);
+            } else {
+                dataTypes[i].write(pstmt, i + 1, v);
+            }
+        }
+    }
+
+    public RowBatch newBatch(int capacity) {
+        return new RowBatch(tableDef, columns, capacity);
+    }
+
+    // primitive columns are moved without boxing, the switch keeps the per cell dispatch monomorphic.
+    // returns the estimated bytes of the row, on the same terms as RowBatch.estimateBytes
+    @SuppressWarnings("unchecked")
+    public long readInto(ResultSet rs, RowBatch batch) throws SQLException {
+        int row = batch.addRow();
+        long bytes = fixedBytes;
+        for(int i=0; i<columns.length; i++) {
+            switch(kinds[i]) {
+                case RowBatch.INT: {
+                    int v = rs.getInt(ordinals[i]);
+                    if(rs.wasNull()) {
+                        batch.setNull(i, row);
+                    } else {
+                        batch.setInt(i, row, v);
+                    }
+                    break;
+                }
+                case RowBatch.LONG: {
+                    long v = rs.getLong(ordinals[i]);
+                    if(rs.wasNull()) {
+                        batch.setNull(i, row);
+                    } else {
+                        batch.setLong(i, row, v);
+                    }
+                    break;
+                }
+                case RowBatch.DOUBLE: {
+                    double v = rs.getDouble(ordinals[i]);
+                    if(rs.wasNull()) {
+                        batch.setNull(i, row);
+                    } else {
+                        batch.setDouble(i, row, v);
+                    }
+                    break;
+                }
+                default: {
+                    Object v = dataTypes[i].read(rs, ordinals[i]);
+                    if(v == null) {
+                        batch.setNull(i, row);
+                    } else {
+                        batch.setObject(i, row, v);
+                        if(variable[i]) {
+                            bytes += Lobs.sizeOf(v);
+                        }
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public void bind(PreparedStatement pstmt, RowBatch batch, int row) throws SQLException {
+        bind(pstmt, batch, row, 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void bind(PreparedStatement pstmt, RowBatch batch, int row, int firstParameter) throws SQLException {
+        for(int i=0; i<columns.length; i++) {
+            int p = firstParameter + i;
+            if(batch.isNull(i, row)) {
+                pstmt.setNull(p, sqlTypes[i]);
+                continue;
+            }
+            switch(kinds[i]) {
+                case RowBatch.INT:
+                    pstmt.setInt(p, batch.getInt(i, row));
+                    break;
+                case RowBatch.LONG:
+                    pstmt.setLong(p, batch.getLong(i, row));
+                    break;
+                case RowBatch.DOUBLE:
+                    pstmt.setDouble(p, batch.getDouble(i, row));
+                    break;
+                default:
+                    dataTypes[i].write(pstmt, p, batch.getObject(i, row));
+            }
+        }
+    }
+}
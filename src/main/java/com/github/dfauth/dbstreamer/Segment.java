@@ -0,0 +1,327 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * The on disk layout of an exported chunk, little endian throughout.
+ *
+ * header:  magic, version, table name, columns (name, ordinal, jdbc type), primary key, dependencies
+ * block:   payload length (long), row count (int), then per column its null mask words followed by its values,
+ *          primitive columns as a packed array of every row, other columns only for the rows that are not null
+ * trailer: a payload length of zero, without which the segment is incomplete
+ */
+public class Segment {
+
+    public static final int MAGIC = 0x47534244; // DBSG
+    public static final int VERSION = 1;
+    public static final String SUFFIX = ".seg";
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int BLOCK_HEADER = Long.BYTES;
+
+    static ByteBuffer header(TableDefinition tableDef) {
+        Encoder out = new Encoder(1024);
+        out.ensure(8).buffer.putInt(MAGIC).putInt(VERSION);
+        out.putString(tableDef.getName());
+        out.ensure(4).buffer.putInt(tableDef.getColumnDefs().size());
+        for(ColumnDefinition cd : tableDef.getColumnDefs()) {
+            out.putString(cd.getName());
+            out.ensure(8).buffer.putInt(cd.getOrdinal()).putInt(cd.getDataType().sqlType());
+        }
+        out.putStrings(tableDef.getPrimaryKey());
+        out.putStrings(tableDef.getDependencies());
+        return out.flip();
+    }
+
+    static TableDefinition readHeader(ByteBuffer in) {
+        if(in.getInt() != MAGIC) {
+            throw new IllegalStateException("not a segment file");
+        }
+        int version = in.getInt();
+        if(version != VERSION) {
+            throw new IllegalStateException("unsupported segment version "+version);
+        }
+        String table = getString(in);
+        SortedSet<ColumnDefinition> columns = new TreeSet<>(ColumnDefinition.comparator);
+        int n = in.getInt();
+        for(int i=0; i<n; i++) {
+            String name = getString(in);
+            int ordinal = in.getInt();
+            int jdbcType = in.getInt();
+            columns.add(new ColumnDefinition(table, ordinal, name, DataType.Factory.findByJdbcType(jdbcType).create()));
+        }
+        List<String> primaryKey = getStrings(in);
+        Set<String> dependencies = new HashSet<>(getStrings(in));
+        return new TableDefinition(table, columns, primaryKey, dependencies);
+    }
+
+    // the rows of a file written from one table can be bound to another only if they line up column for column
+    static void checkCompatible(TableDefinition file, TableDefinition target) {
+        ColumnDefinition[] a = file.getColumnDefs().toArray(new ColumnDefinition[0]);
+        ColumnDefinition[] b = target.getColumnDefs().toArray(new ColumnDefinition[0]);
+        boolean ok = a.length == b.length;
+        for(int i=0; ok && i<a.length; i++) {
+            ok = a[i].getName().equalsIgnoreCase(b[i].getName()) && a[i].getDataType().sqlType() == b[i].getDataType().sqlType();
+        }
+        if(!ok) {
+            throw new IllegalStateException("segment columns "+file.getColumnDefs()+" of "+file.getName()+" do not match "+target.getColumnDefs());
+        }
+    }
+
+    static ByteBuffer encode(RowBatch batch, Encoder out) throws SQLException {
+        int rows = batch.size();
+        int words = (rows + 63) >>> 6;
+        out.clear();
+        out.ensure(BLOCK_HEADER + 4).buffer.putLong(0).putInt(rows);
+        for(int c=0; c<batch.width(); c++) {
+            long[] mask = batch.nullMask(c);
+            out.ensure(8 * words);
+            for(int w=0; w<words; w++) {
+                // bits past the last row are whatever a previous use of the batch left there
+                long bits = w == words - 1 && (rows & 63) != 0 ? mask[w] & ((1L << rows) - 1) : mask[w];
+                out.buffer.putLong(bits);
+            }
+            switch(batch.kind(c)) {
+                case RowBatch.INT:
+                    out.ensure(4 * rows).buffer.asIntBuffer().put(batch.intColumn(c), 0, rows);
+                    out.skip(4 * rows);
+                    break;
+                case RowBatch.LONG:
+                    out.ensure(8 * rows).buffer.asLongBuffer().put(batch.longColumn(c), 0, rows);
+                    out.skip(8 * rows);
+                    break;
+                case RowBatch.DOUBLE:
+                    out.ensure(8 * rows).buffer.asDoubleBuffer().put(batch.doubleColumn(c), 0, rows);
+                    out.skip(8 * rows);
+                    break;
+                default:
+                    int sqlType = batch.getColumnDefinition(c).getDataType().sqlType();
+                    for(int row=0; row<rows; row++) {
+                        if(!batch.isNull(c, row)) {
+                            putObject(out, sqlType, batch.getObject(c, row));
+                        }
+                    }
+            }
+        }
+        ByteBuffer block = out.flip();
+        block.putLong(0, block.remaining() - BLOCK_HEADER);
+        return block;
+    }
+
+    // primitive columns are bulk copied out of the (typically mapped) buffer straight into the batch arrays
+    static RowBatch decode(ByteBuffer in, RowBatch batch, Decoder scratch) throws SQLException {
+        int rows = in.getInt();
+        int words = (rows + 63) >>> 6;
+        for(int c=0; c<batch.width(); c++) {
+            long[] mask = batch.nullMask(c);
+            for(int w=0; w<words; w++) {
+                mask[w] = in.getLong();
+            }
+            switch(batch.kind(c)) {
+                case RowBatch.INT:
+                    in.asIntBuffer().get(batch.intColumn(c), 0, rows);
+                    in.position(in.position() + 4 * rows);
+                    break;
+                case RowBatch.LONG:
+                    in.asLongBuffer().get(batch.longColumn(c), 0, rows);
+                    in.position(in.position() + 8 * rows);
+                    break;
+                case RowBatch.DOUBLE:
+                    in.asDoubleBuffer().get(batch.doubleColumn(c), 0, rows);
+                    in.position(in.position() + 8 * rows);
+                    break;
+                default:
+                    int sqlType = batch.getColumnDefinition(c).getDataType().sqlType();
+                    for(int row=0; row<rows; row++) {
+                        if((mask[row >>> 6] & (1L << row)) == 0) {
+                            batch.setObject(c, row, getObject(in, sqlType, scratch));
+                        }
+                    }
+            }
+        }
+        batch.setSize(rows);
+        return batch;
+    }
+
+    private static void putObject(Encoder out, int sqlType, Object v) throws SQLException {
+        switch(sqlType) {
+            case Types.VARCHAR:
+            case Types.CLOB:
+                out.putBytes(v.toString().getBytes(StandardCharsets.UTF_8));
+                break;
+            case Types.NUMERIC: {
+                BigDecimal d = (BigDecimal) v;
+                out.ensure(4).buffer.putInt(d.scale());
+                out.putBytes(d.unscaledValue().toByteArray());
+                break;
+            }
+            case Types.DATE:
+                out.ensure(8).buffer.putLong(((java.util.Date) v).getTime());
+                break;
+            case Types.TIMESTAMP:
+                out.ensure(12).buffer.putLong(((Timestamp) v).getTime()).putInt(((Timestamp) v).getNanos());
+                break;
+            case Types.BOOLEAN:
+                out.ensure(1).buffer.put((byte) (((Boolean) v) ? 1 : 0));
+                break;
+            case Types.BIT:
+                out.ensure(1).buffer.put((Byte) v);
+                break;
+            case Types.BLOB: {
+                Blob blob = (Blob) v;
+                out.putBytes(blob.getBytes(1, Math.toIntExact(blob.length())));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("jdbc type "+sqlType+" cannot be written to a segment");
+        }
+    }
+
+    private static Object getObject(ByteBuffer in, int sqlType, Decoder scratch) throws SQLException {
+        switch(sqlType) {
+            case Types.VARCHAR:
+            case Types.CLOB: {
+                int n = in.getInt();
+                return new String(scratch.bytes(in, n), 0, n, StandardCharsets.UTF_8);
+            }
+            case Types.NUMERIC: {
+                int scale = in.getInt();
+                byte[] unscaled = new byte[in.getInt()];
+                in.get(unscaled);
+                return new BigDecimal(new BigInteger(unscaled), scale);
+            }
+            case Types.DATE:
+                return new java.sql.Date(in.getLong());
+            case Types.TIMESTAMP: {
+                Timestamp ts = new Timestamp(in.getLong());
+                ts.setNanos(in.getInt());
+                return ts;
+            }
+            case Types.BOOLEAN:
+                return in.get() != 0;
+            case Types.BIT:
+                return in.get();
+            case Types.BLOB: {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                return Lobs.blob(bytes);
+            }
+            default:
+                throw new IllegalArgumentException("jdbc type "+sqlType+" cannot be read from a segment");
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> getStrings(ByteBuffer in) {
+        int n = in.getInt();
+        List<String> tmp = new ArrayList<>(n);
+        for(int i=0; i<n; i++) {
+            tmp.add(getString(in));
+        }
+        return tmp;
+    }
+
+    static class Format implements FileFormat {
+
+        @Override
+        public String getSuffix() {
+            return SUFFIX;
+        }
+
+        @Override
+        public Subscriber<RowBatch> writerFor(Path file, TableDefinition tableDef, TableMetrics metrics, Consumer<Boolean> completionListener, Consumer<Throwable> exceptionListener) {
+            return new SegmentWriter(file, tableDef, metrics, completionListener, exceptionListener);
+        }
+
+        // blocks are replayed as they were written, so the batch size of the export carries over
+        @Override
+        public List<Publisher<RowBatch>> readersFor(Path file, TableDefinition tableDef, int batchSize, Executor executor, TableMetrics metrics) {
+            return Collections.singletonList(new SegmentReader(file, tableDef, executor, metrics));
+        }
+
+        @Override
+        public String toString() {
+            return "segment";
+        }
+    }
+
+    // a reusable, growable write buffer
+    static class Encoder {
+
+        private ByteBuffer buffer;
+
+        Encoder(int capacity) {
+            this.buffer = ByteBuffer.allocate(capacity).order(ORDER);
+        }
+
+        Encoder ensure(int n) {
+            if(buffer.remaining() < n) {
+                int capacity = buffer.capacity();
+                while(capacity - buffer.position() < n) {
+                    capacity = Math.multiplyExact(capacity, 2);
+                }
+                ByteBuffer tmp = ByteBuffer.allocate(capacity).order(ORDER);
+                buffer.flip();
+                tmp.put(buffer);
+                buffer = tmp;
+            }
+            return this;
+        }
+
+        void skip(int n) {
+            buffer.position(buffer.position() + n);
+        }
+
+        void clear() {
+            buffer.clear();
+        }
+
+        void putBytes(byte[] bytes) {
+            ensure(4 + bytes.length).buffer.putInt(bytes.length).put(bytes);
+        }
+
+        void putString(String s) {
+            putBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void putStrings(Collection<String> strings) {
+            ensure(4).buffer.putInt(strings.size());
+            strings.forEach(this::putString);
+        }
+
+        ByteBuffer flip() {
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    // scratch space for strings, which are decoded from a copy as a mapped buffer has no backing array
+    static class Decoder {
+
+        private byte[] bytes = new byte[256];
+
+        byte[] bytes(ByteBuffer in, int n) {
+            if(bytes.length < n) {
+                bytes = new byte[Math.max(n, bytes.length * 2)];
+            }
+            in.get(bytes, 0, n);
+            return bytes;
+        }
+    }
+}
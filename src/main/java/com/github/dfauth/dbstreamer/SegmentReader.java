@@ -0,0 +1,106 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+
+// publishes the blocks of a segment file as batches of the given table, read through a memory mapped window
+public class SegmentReader implements Publisher<RowBatch> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentReader.class);
+    static final long WINDOW = 256L << 20;
+
+    private final Path path;
+    private final TableDefinition tableDef;
+    private final Executor executor;
+    private final TableMetrics metrics;
+
+    public SegmentReader(Path path, TableDefinition tableDef, Executor executor, TableMetrics metrics) {
+        this.path = path;
+        this.tableDef = tableDef;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    public static TableDefinition describe(Path path) {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return Segment.readHeader(new Window(channel).map(0, Math.min(channel.size(), WINDOW)));
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super RowBatch> subscriber) {
+        subscriber.onSubscribe(new ReadCursor(path.toString(), subscriber, executor, cursor -> read(subscriber, cursor)));
+    }
+
+    private void read(Subscriber<? super RowBatch> subscriber, ReadCursor cursor) {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Window window = new Window(channel);
+            ByteBuffer header = window.map(0, Math.min(channel.size(), WINDOW));
+            Segment.checkCompatible(Segment.readHeader(header), tableDef);
+            RowCodec codec = tableDef.getCodec();
+            Segment.Decoder scratch = new Segment.Decoder();
+            long position = header.position();
+            while(cursor.awaitDemand()) {
+                long length = window.map(position, Segment.BLOCK_HEADER).getLong();
+                position += Segment.BLOCK_HEADER;
+                if(length == 0) {
+                    subscriber.onComplete();
+                    return;
+                }
+                long start = System.nanoTime();
+                ByteBuffer block = window.map(position, length);
+                position += length;
+                RowBatch batch = Segment.decode(block, codec.newBatch(block.getInt(0)), scratch);
+                metrics.read(batch.size(), length, System.nanoTime() - start);
+                subscriber.onNext(batch);
+            }
+            logger.info("read of "+path+" cancelled");
+        } catch (Exception e) {
+            metrics.error();
+            logger.error(e.getMessage(), e);
+            subscriber.onError(e);
+        }
+    }
+
+    // maps the file a window at a time, files larger than a single mapping allows are read in several
+    private static class Window {
+
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer mapped;
+        private long start = 0;
+        private long end = 0;
+
+        private Window(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        private ByteBuffer map(long position, long length) throws IOException {
+            if(position + length > size) {
+                throw new IllegalStateException("segment is incomplete, "+length+" bytes at "+position+" run past its end at "+size);
+            }
+            if(position < start || position + length > end) {
+                start = position;
+                end = Math.min(size, position + Math.max(length, WINDOW));
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+            ByteBuffer tmp = mapped.duplicate();
+            tmp.position((int) (position - start)).limit((int) (position - start + length));
+            return tmp.slice().order(Segment.ORDER);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+// writes one chunk of a table to a segment file, which only appears under its final name once complete
+public class SegmentWriter implements Subscriber<RowBatch> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentWriter.class);
+
+    private final Path path;
+    private final Path tmp;
+    private final TableDefinition tableDef;
+    private final TableMetrics metrics;
+    private final Consumer<Boolean> completionListener;
+    private final Consumer<Throwable> exceptionListener;
+    private final Segment.Encoder encoder = new Segment.Encoder(1 << 16);
+    private Subscription subscription;
+    private FileChannel channel;
+    private long cnt = 0;
+    private boolean failed = false;
+
+    public SegmentWriter(Path path, TableDefinition tableDef, TableMetrics metrics, Consumer<Boolean> completionListener, Consumer<Throwable> exceptionListener) {
+        this.path = path;
+        this.tmp = path.resolveSibling(path.getFileName()+".tmp");
+        this.tableDef = tableDef;
+        this.metrics = metrics;
+        this.completionListener = completionListener;
+        this.exceptionListener = exceptionListener;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        subscription = s;
+        try {
+            channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            write(Segment.header(tableDef));
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            subscription.cancel();
+            fail(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(RowBatch batch) {
+        if(failed) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            ByteBuffer block = Segment.encode(batch, encoder);
+            long bytes = block.remaining();
+            write(block);
+            cnt += batch.size();
+            metrics.written(batch.size(), bytes, System.nanoTime() - start);
+        } catch (IOException | SQLException | RuntimeException e) {
+            logger.error(e.getMessage(), e);
+            metrics.error();
+            subscription.cancel();
+            fail(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        logger.error("onError("+t+")");
+        if(!failed) {
+            fail(t);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if(failed) {
+            return;
+        }
+        try {
+            ByteBuffer trailer = ByteBuffer.allocate(Segment.BLOCK_HEADER).order(Segment.ORDER).putLong(0);
+            trailer.flip();
+            write(trailer);
+            channel.force(true);
+            channel.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("onComplete: "+path+" cnt: "+cnt);
+            completionListener.accept(true);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            fail(e);
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void fail(Throwable t) {
+        failed = true;
+        try {
+            if(channel != null) {
+                channel.close();
+            }
+            Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+        exceptionListener.accept(t);
+    }
+}
@@ -2,7 +2,6 @@ package com.github.dfauth.dbstreamer;
 
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
-import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,44 +10,198 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 
 public class SourceDatabase extends AbstractDatabase {
 
     private static final Logger logger = LoggerFactory.getLogger(SourceDatabase.class);
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    // batches read ahead of the writer, so at most this many batches of rows are in flight per chunk
+    private static final int PREFETCH_BATCHES = 2;
 
-    public SourceDatabase(DataSource dataSource) {
+    private final Executor executor;
+    private final Metrics metrics;
+
+    public SourceDatabase(DataSource dataSource, Executor executor) {
+        this(dataSource, executor, Metrics.platform());
+    }
+
+    public SourceDatabase(DataSource dataSource, Executor executor, Metrics metrics) {
         super(dataSource);
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    public Publisher<RowBatch> asPublisherFor(TableDefinition tableDef) {
+        return asPublisherFor(Chunk.all(tableDef));
+    }
+
+    public Publisher<RowBatch> asPublisherFor(Chunk chunk) {
+        return asPublisherFor(chunk, DEFAULT_BATCH_SIZE);
+    }
+
+    public Publisher<RowBatch> asPublisherFor(Chunk chunk, int batchSize) {
+        return asPublisherFor(chunk, batchSize, ReadOptions.DEFAULT);
+    }
+
+    public Publisher<RowBatch> asPublisherFor(Chunk chunk, int batchSize, ReadOptions options) {
+        return asPublisherFor(chunk, BatchSizeController.fixed(batchSize), options);
+    }
+
+    public Publisher<RowBatch> asPublisherFor(Chunk chunk, BatchSizeController controller, ReadOptions options) {
+        return new FluxQueueWrapper<>(createPublisherFor(chunk, controller, options), PREFETCH_BATCHES, executor);
+    }
+
+    public List<Chunk> chunksFor(TableDefinition tableDef, int n) {
+        if(n <= 1) {
+            return Collections.singletonList(Chunk.all(tableDef));
+        }
+        Optional<String> key = orderedKeyOf(tableDef);
+        if(key.isPresent()) {
+            return rangeChunksFor(tableDef, key.get(), n);
+        }
+        Optional<String> column = tableDef.getColumnDefs().stream().filter(SourceDatabase::isIntegral).map(ColumnDefinition::getName).findFirst();
+        if(column.isPresent()) {
+            List<Chunk> tmp = new ArrayList<>();
+            for(int i=0; i<n; i++) {
+                tmp.add(Chunk.modulo(tableDef, column.get(), n, i));
+            }
+            return tmp;
+        }
+        logger.info("no integral column to split "+tableDef+" on, reading it as a single chunk");
+        return Collections.singletonList(Chunk.all(tableDef));
+    }
+
+    public Optional<Object> max(TableDefinition tableDef, ColumnDefinition column) {
+        return executePreparedStatementForQuery(String.format("select max(%s) from %s", column.getName(), tableDef.getName()), rs -> {
+            try {
+                return rs.next() ? Optional.ofNullable(column.getDataType().read(rs, 1)) : Optional.empty();
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private Optional<String> orderedKeyOf(TableDefinition tableDef) {
+        if(tableDef.getPrimaryKey().size() != 1) {
+            return Optional.empty();
+        }
+        return tableDef.getColumnDef(tableDef.getPrimaryKey().get(0)).filter(SourceDatabase::isIntegral).map(ColumnDefinition::getName);
     }
 
-    public Publisher<TableRowUpdate> asPublisherFor(TableDefinition tableDef) {
-        return new FluxQueueWrapper<>(createPublisherFor(tableDef)).asFlux();
+    private static boolean isIntegral(ColumnDefinition cd) {
+        switch(cd.getDataType().sqlType()) {
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return true;
+            default:
+                return false;
+        }
     }
 
-    private void queryStarForTable(TableDefinition tableDef, Subscriber<? super TableRowUpdate> subscriber) {
+    private List<Chunk> rangeChunksFor(TableDefinition tableDef, String column, int n) {
+        long[] bounds = executePreparedStatementForQuery(String.format("select min(%s), max(%s) from %s", column, column, tableDef.getName()), rs -> {
+            try {
+                if(rs.next()) {
+                    long min = rs.getLong(1);
+                    if(!rs.wasNull()) {
+                        return new long[]{min, rs.getLong(2)};
+                    }
+                }
+                return null;
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        });
+        if(bounds == null) {
+            return Collections.singletonList(Chunk.all(tableDef));
+        }
+        // keys spanning most of the long range overflow a signed difference, but never an unsigned one.
+        // offsets stay within it, so min plus an offset always lands between min and max
+        long span = bounds[1] - bounds[0];
+        long step = Math.max(1, Long.divideUnsigned(span, n));
+        List<Chunk> tmp = new ArrayList<>();
+        Long lower = null;
+        for(int i=1; i<n && Long.compareUnsigned((long) i * step, span) <= 0; i++) {
+            long upper = bounds[0] + i * step;
+            tmp.add(Chunk.range(tableDef, column, lower, upper));
+            lower = upper;
+        }
+        // the first and last chunks are open ended so rows outside the sampled bounds are not lost
+        tmp.add(Chunk.range(tableDef, column, lower, null));
+        return tmp;
+    }
+
+    private void queryStarForTable(Chunk chunk, BatchSizeController controller, ReadOptions options, Subscriber<? super RowBatch> subscriber, ReadCursor cursor) {
+        TableDefinition tableDef = chunk.getTableDefinition();
+        TableMetrics tableMetrics = metrics.forTable(chunk.getTable());
         Connection connection = null;
         try {
             connection = this.dataSource.getConnection();
-            PreparedStatement pstmt = connection.prepareStatement(getColumnQuery(tableDef.getName()));
+            if(options.isStreaming()) {
+                connection.setReadOnly(true);
+            }
+            PreparedStatement pstmt = connection.prepareStatement(getColumnQuery(chunk), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            getDialect().configureForRead(connection, pstmt, options);
+            bind(pstmt, chunk);
             ResultSet resultSet = pstmt.executeQuery();
-            while (resultSet.next()) {
-                List<ColumnUpdate> updates = tableDef.getColumnDefs().stream().map(cd -> cd.read(resultSet)).collect(Collectors.toList());
-                subscriber.onNext(new TableRowUpdate(tableDef, updates));
+            RowCodec codec = tableDef.getCodec();
+            boolean exhausted = false;
+            while (!exhausted && cursor.awaitDemand()) {
+                RowBatch batch = codec.newBatch(controller.getBatchSize());
+                long start = System.nanoTime();
+                long maxBytes = Math.min(options.getMaxBatchBytes(), controller.getMaxBytes());
+                long bytes = 0;
+                while(!batch.isFull()) {
+                    if(!resultSet.next()) {
+                        exhausted = true;
+                        break;
+                    }
+                    bytes += codec.readInto(resultSet, batch);
+                    if(bytes >= maxBytes) {
+                        logger.debug("flushing "+batch+" early, it holds "+bytes+" bytes");
+                        break;
+                    }
+                }
+                if(!batch.isEmpty()) {
+                    tableMetrics.read(batch.size(), bytes, System.nanoTime() - start);
+                    subscriber.onNext(batch);
+                }
+            }
+            if(cursor.isCancelled()) {
+                logger.info("read of "+chunk+" cancelled");
+            } else {
+                subscriber.onComplete();
             }
-            subscriber.onComplete();
         } catch (SQLException e) {
+            tableMetrics.error();
             subscriber.onError(e);
             logger.error(e.getMessage(), e);
             throw new RuntimeException(e);
         } catch (RuntimeException e) {
+            tableMetrics.error();
             subscriber.onError(e);
             logger.error(e.getMessage(), e);
             throw new RuntimeException(e);
         } finally {
             if(connection != null) {
                 try {
+                    if(options.isStreaming()) {
+                        if(!connection.getAutoCommit()) {
+                            connection.commit();
+                            connection.setAutoCommit(true);
+                        }
+                        connection.setReadOnly(false);
+                    }
                     connection.close();
                 } catch (SQLException e) {
                     logger.error(e.getMessage(), e);
@@ -57,25 +210,12 @@ public class SourceDatabase extends AbstractDatabase {
         }
     }
 
-    private String getColumnQuery(String tableName) {
-        return String.format("select * from %s;", tableName);
+    private String getColumnQuery(Chunk chunk) {
+        return String.format("select * from %s%s;", chunk.getTable(), chunk.getWhereClause());
     }
 
-    private Publisher<TableRowUpdate> createPublisherFor(TableDefinition tableDef) {
-        return subscriber -> subscriber.onSubscribe(new Subscription() {
-            @Override
-            public void request(long n) {
-//                logger.info("sourcedB subsciption request("+n+")");
-                Executors.newSingleThreadExecutor().submit(( )-> {
-                    queryStarForTable(tableDef, subscriber);
-                });
-            }
-
-            @Override
-            public void cancel() {
-                logger.warn("sourcedB subsciption cancel");
-            }
-        });
+    private Publisher<RowBatch> createPublisherFor(Chunk chunk, BatchSizeController controller, ReadOptions options) {
+        return subscriber -> subscriber.onSubscribe(new ReadCursor(chunk.toString(), subscriber, executor, cursor -> queryStarForTable(chunk, controller, options, subscriber, cursor)));
     }
 
     @Override
@@ -0,0 +1,407 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// reads ahead of a stalled writer: batches are held in memory up to a watermark, past it they are appended to
+// segment files on disk, and either way handed on in the order they were read. the source is only throttled
+// once maxSpillBytes are on disk. buffers sharing a heap counter share the watermark too, so it bounds the
+// heap of a whole copy rather than of each chunk
+public class SpillBuffer implements Processor<RowBatch, RowBatch> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpillBuffer.class);
+    public static final long DEFAULT_WATERMARK = 64L << 20;
+    public static final long SPILL_FILE_BYTES = 256L << 20;
+
+    private final Publisher<RowBatch> publisher;
+    private final TableDefinition tableDef;
+    private final Path dir;
+    private final long watermark;
+    private final long maxSpillBytes;
+    private final Executor executor;
+    private final String prefix;
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong heap;
+    private final AtomicLong inMemory = new AtomicLong();
+    private final AtomicLong onDisk = new AtomicLong();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean throttled = new AtomicBoolean();
+    private final AtomicBoolean signalled = new AtomicBoolean();
+    private final Segment.Encoder encoder = new Segment.Encoder(1 << 16);
+    private final Segment.Decoder scratch = new Segment.Decoder();
+    private volatile Subscription subscription;
+    private volatile Subscriber<? super RowBatch> subscriber;
+    private volatile boolean done = false;
+    private volatile boolean cancelled = false;
+    private Throwable error;
+    private final List<SpillFile> files = new ArrayList<>();
+    private SpillFile current;
+    private boolean terminated = false;
+    private long spilledBatches = 0;
+    private long spilledBytes = 0;
+
+    public SpillBuffer(Publisher<RowBatch> publisher, TableDefinition tableDef, Path dir, long watermark, long maxSpillBytes, Executor executor) {
+        this(publisher, tableDef, dir, new AtomicLong(), watermark, maxSpillBytes, executor);
+    }
+
+    public SpillBuffer(Publisher<RowBatch> publisher, TableDefinition tableDef, Path dir, AtomicLong heap, long watermark, long maxSpillBytes, Executor executor) {
+        this.publisher = publisher;
+        this.heap = heap;
+        this.tableDef = tableDef;
+        this.dir = dir;
+        this.watermark = watermark;
+        this.maxSpillBytes = maxSpillBytes;
+        this.executor = executor;
+        this.prefix = tableDef.getName()+"-"+UUID.randomUUID();
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super RowBatch> s) {
+        this.subscriber = s;
+        s.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                if(n <= 0) {
+                    cancel();
+                    s.onError(new IllegalArgumentException("non-positive request("+n+")"));
+                    return;
+                }
+                requested.accumulateAndGet(n, (current, m) -> current + m < 0 ? Long.MAX_VALUE : current + m);
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                Subscription upstream = subscription;
+                if(upstream != null) {
+                    upstream.cancel();
+                }
+                drain();
+            }
+        });
+        publisher.subscribe(this);
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        this.subscription = s;
+        if(cancelled) {
+            s.cancel();
+        } else {
+            s.request(1);
+        }
+    }
+
+    // the batch at the head of the queue always stays in memory, it is the next one the writer will take
+    @Override
+    public void onNext(RowBatch batch) {
+        if(cancelled) {
+            return;
+        }
+        long bytes = batch.estimateBytes();
+        boolean head = queue.isEmpty();
+        if(head || reserve(bytes)) {
+            if(head) {
+                // held whatever the other buffers hold, or a stalled writer elsewhere would starve this one
+                heap.addAndGet(bytes);
+            }
+            inMemory.addAndGet(bytes);
+            queue.offer(new Entry(batch, bytes));
+        } else {
+            try {
+                queue.offer(spill(batch));
+            } catch (IOException | SQLException | RuntimeException e) {
+                logger.error(e.getMessage(), e);
+                subscription.cancel();
+                onError(e);
+                return;
+            }
+        }
+        drain();
+        if(onDisk.get() < maxSpillBytes) {
+            subscription.request(1);
+        } else {
+            logger.debug("spill of "+tableDef.getName()+" reached "+onDisk.get()+" bytes, throttling the read");
+            throttled.set(true);
+            // the writer may have caught up in the meantime, in which case nobody else will resume the read
+            resume();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        error = t;
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        done = true;
+        drain();
+    }
+
+    private boolean reserve(long bytes) {
+        long held;
+        do {
+            held = heap.get();
+            if(held + bytes > watermark) {
+                return false;
+            }
+        } while(!heap.compareAndSet(held, held + bytes));
+        return true;
+    }
+
+    private void resume() {
+        if(onDisk.get() < maxSpillBytes && throttled.compareAndSet(true, false)) {
+            subscription.request(1);
+        }
+    }
+
+    private synchronized Entry spill(RowBatch batch) throws IOException, SQLException {
+        if(terminated) {
+            throw new IllegalStateException(this+" has terminated");
+        }
+        if(current == null || current.size >= SPILL_FILE_BYTES) {
+            if(current != null) {
+                current.sealed = true;
+                current.releaseIfDrained();
+            }
+            Files.createDirectories(dir);
+            current = new SpillFile(dir.resolve(String.format("%s.%04d.spill", prefix, files.size())));
+            files.add(current);
+        }
+        ByteBuffer block = Segment.encode(batch, encoder);
+        long length = block.remaining();
+        long position = current.append(block);
+        onDisk.addAndGet(length);
+        spilledBatches++;
+        spilledBytes += length;
+        return new Entry(current, position + Segment.BLOCK_HEADER, length - Segment.BLOCK_HEADER);
+    }
+
+    private void drain() {
+        if(wip.getAndIncrement() == 0) {
+            try {
+                executor.execute(this::drainLoop);
+            } catch (RejectedExecutionException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            drainQueue();
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    // a drain that could not start, or broke off, would otherwise leave wip raised and the stream never terminated
+    private void fail(Throwable t) {
+        logger.error(t.getMessage(), t);
+        cancelled = true;
+        Subscription upstream = subscription;
+        if(upstream != null) {
+            upstream.cancel();
+        }
+        if(signalled.compareAndSet(false, true)) {
+            subscriber.onError(t);
+        }
+        terminate();
+        wip.set(0);
+    }
+
+    // runs serially (guarded by wip) on the executor, so entries leave the queue one at a time and in order
+    private void drainQueue() {
+        int missed = 1;
+        while(true) {
+            if(cancelled) {
+                terminate();
+                return;
+            }
+            long r = requested.get();
+            long e = 0;
+            while(e != r && !cancelled) {
+                boolean d = done;
+                Entry entry = queue.poll();
+                if(entry == null) {
+                    if(d) {
+                        signalTerminal();
+                        return;
+                    }
+                    break;
+                }
+                RowBatch batch;
+                try {
+                    batch = entry.take();
+                } catch (IOException | SQLException | RuntimeException ex) {
+                    logger.error(ex.getMessage(), ex);
+                    Subscription upstream = subscription;
+                    if(upstream != null) {
+                        upstream.cancel();
+                    }
+                    error = ex;
+                    signalTerminal();
+                    return;
+                }
+                subscriber.onNext(batch);
+                e++;
+            }
+            if(e == r && done && queue.isEmpty()) {
+                signalTerminal();
+                return;
+            }
+            if(e != 0 && r != Long.MAX_VALUE) {
+                requested.addAndGet(-e);
+            }
+            missed = wip.addAndGet(-missed);
+            if(missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void signalTerminal() {
+        if(!signalled.compareAndSet(false, true)) {
+            return;
+        }
+        if(spilledBatches > 0) {
+            logger.info("spilled "+spilledBatches+" batches ("+spilledBytes+" bytes) of "+tableDef.getName()+" to "+files.size()+" file(s)");
+        }
+        Throwable t = error;
+        terminate();
+        if(t != null) {
+            subscriber.onError(t);
+        } else {
+            subscriber.onComplete();
+        }
+    }
+
+    private synchronized void terminate() {
+        terminated = true;
+        queue.clear();
+        heap.addAndGet(-inMemory.getAndSet(0));
+        onDisk.set(0);
+        files.forEach(SpillFile::release);
+    }
+
+    public long getInMemoryBytes() {
+        return inMemory.get();
+    }
+
+    public long getOnDiskBytes() {
+        return onDisk.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SpillBuffer("+tableDef.getName()+")";
+    }
+
+    // a batch either held on heap or spilled to a file, decoded again through a mapping when its turn comes
+    private class Entry {
+
+        private final RowBatch batch;
+        private final long bytes;
+        private final SpillFile file;
+        private final long position;
+
+        private Entry(RowBatch batch, long bytes) {
+            this.batch = batch;
+            this.bytes = bytes;
+            this.file = null;
+            this.position = 0;
+        }
+
+        private Entry(SpillFile file, long position, long bytes) {
+            this.batch = null;
+            this.bytes = bytes;
+            this.file = file;
+            this.position = position;
+            file.pending.incrementAndGet();
+        }
+
+        private RowBatch take() throws IOException, SQLException {
+            if(file == null) {
+                inMemory.addAndGet(-bytes);
+                heap.addAndGet(-bytes);
+                return batch;
+            }
+            ByteBuffer block = file.channel.map(FileChannel.MapMode.READ_ONLY, position, bytes).order(Segment.ORDER);
+            RowBatch tmp = Segment.decode(block, tableDef.getCodec().newBatch(block.getInt(0)), scratch);
+            onDisk.addAndGet(-(bytes + Segment.BLOCK_HEADER));
+            file.pending.decrementAndGet();
+            file.releaseIfDrained();
+            resume();
+            return tmp;
+        }
+    }
+
+    // append only, removed once it has been rolled over and every batch in it has been read back
+    private static class SpillFile {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean sealed = false;
+        private long size = 0;
+
+        private SpillFile(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            logger.info("spilling to "+path);
+        }
+
+        private long append(ByteBuffer block) throws IOException {
+            long position = size;
+            while(block.hasRemaining()) {
+                size += channel.write(block, size);
+            }
+            return position;
+        }
+
+        private void releaseIfDrained() {
+            if(sealed && pending.get() == 0) {
+                release();
+            }
+        }
+
+        private void release() {
+            if(!released.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                logger.warn("unable to remove spill file "+path+": "+e.getMessage());
+            }
+        }
+    }
+}
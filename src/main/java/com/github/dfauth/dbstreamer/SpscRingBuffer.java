@@ -0,0 +1,69 @@
+package com.github.dfauth.dbstreamer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public class SpscRingBuffer<E> {
+
+    private final Object[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next slot to read, only advanced by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next slot to write, only advanced by the producer
+
+    public SpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+    }
+
+    public boolean offer(E e) {
+        long t = tail.get();
+        if(t - head.get() >= buffer.length) {
+            return false;
+        }
+        buffer[(int) t & mask] = e;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head.get();
+        if(h >= tail.get()) {
+            return null;
+        }
+        int idx = (int) h & mask;
+        E e = (E) buffer[idx];
+        buffer[idx] = null;
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<? super E> consumer, int limit) {
+        long h = head.get();
+        int n = (int) Math.min(limit, tail.get() - h);
+        for(int i=0; i<n; i++) {
+            int idx = (int) (h + i) & mask;
+            E e = (E) buffer[idx];
+            buffer[idx] = null;
+            consumer.accept(e);
+        }
+        if(n > 0) {
+            head.lazySet(h + n);
+        }
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+public class TableCheckpointStore extends AbstractDatabase implements CheckpointStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(TableCheckpointStore.class);
+    public static final String TABLE = "DBSTREAMER_CHECKPOINT";
+
+    public TableCheckpointStore(DataSource dataSource) {
+        super(dataSource);
+        createTableIfAbsent();
+    }
+
+    private void createTableIfAbsent() {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            DatabaseMetaData metaData = connection.getMetaData();
+            // the catalog reports the unquoted name in the case it stores identifiers in, and only this schema's table counts
+            String name = metaData.storesLowerCaseIdentifiers() ? TABLE.toLowerCase(Locale.ROOT) : TABLE;
+            boolean exists;
+            try(ResultSet rs = metaData.getTables(connection.getCatalog(), connection.getSchema(), name, new String[]{"TABLE"})) {
+                exists = rs.next();
+            }
+            if(!exists) {
+                try(Statement st = connection.createStatement()) {
+                    st.executeUpdate(String.format("create table %s (CHECKPOINT_KEY varchar(255) primary key, CHECKPOINT_VALUE varchar(4000))", TABLE));
+                }
+                logger.info("created checkpoint table "+TABLE);
+            }
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            if(connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Optional<String> get(String key) {
+        return executePreparedStatement(String.format("select CHECKPOINT_VALUE from %s where CHECKPOINT_KEY = ?", TABLE), p -> {
+            try {
+                p.setString(1, key);
+                ResultSet rs = p.executeQuery();
+                return rs.next() ? Optional.ofNullable(rs.getString(1)) : Optional.<String>empty();
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Override
+    public void put(String key, String value) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement delete = connection.prepareStatement(String.format("delete from %s where CHECKPOINT_KEY = ?", TABLE));
+                delete.setString(1, key);
+                delete.executeUpdate();
+                PreparedStatement insert = connection.prepareStatement(String.format("insert into %s (CHECKPOINT_KEY, CHECKPOINT_VALUE) values (?, ?)", TABLE));
+                insert.setString(1, key);
+                insert.setString(2, value);
+                insert.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            if(connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        executePreparedStatement(String.format("delete from %s where CHECKPOINT_KEY = ?", TABLE), p -> {
+            try {
+                p.setString(1, key);
+                return p.executeUpdate();
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Override
+    public Map<String, String> entries(String prefix) {
+        // the table holds a handful of rows per copied table, filtering here avoids dialect specific LIKE escapes
+        return executePreparedStatementForQuery(String.format("select CHECKPOINT_KEY, CHECKPOINT_VALUE from %s", TABLE), rs -> {
+            try {
+                Map<String, String> tmp = new TreeMap<>();
+                while(rs.next()) {
+                    if(rs.getString(1).startsWith(prefix)) {
+                        tmp.put(rs.getString(1), rs.getString(2));
+                    }
+                }
+                return tmp;
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "TableCheckpointStore("+TABLE+")";
+    }
+}
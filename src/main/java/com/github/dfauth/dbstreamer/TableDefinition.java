@@ -1,15 +1,32 @@
 package com.github.dfauth.dbstreamer;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.SortedSet;
 
 public class TableDefinition {
 
     private final String name;
     private final SortedSet<ColumnDefinition> columns;
+    private final List<String> primaryKey;
+    private final Set<String> dependencies;
+    private volatile RowCodec codec;
 
     public TableDefinition(String name, SortedSet<ColumnDefinition> columns) {
+        this(name, columns, Collections.emptyList());
+    }
+
+    public TableDefinition(String name, SortedSet<ColumnDefinition> columns, List<String> primaryKey) {
+        this(name, columns, primaryKey, Collections.emptySet());
+    }
+
+    public TableDefinition(String name, SortedSet<ColumnDefinition> columns, List<String> primaryKey, Set<String> dependencies) {
         this.name = name;
         this.columns = columns;
+        this.primaryKey = primaryKey;
+        this.dependencies = dependencies;
     }
 
     public String getName() {
@@ -20,6 +37,29 @@ public class TableDefinition {
         return columns;
     }
 
+    public List<String> getPrimaryKey() {
+        return primaryKey;
+    }
+
+    public Set<String> getDependencies() {
+        return dependencies;
+    }
+
+    public RowCodec getCodec() {
+        if(codec == null) {
+            synchronized (this) {
+                if(codec == null) {
+                    codec = RowCodec.compile(this);
+                }
+            }
+        }
+        return codec;
+    }
+
+    public Optional<ColumnDefinition> getColumnDef(String columnName) {
+        return columns.stream().filter(cd -> cd.getName().equalsIgnoreCase(columnName)).findFirst();
+    }
+
     @Override
     public String toString() {
         return "TableDefinition("+name+")";
@@ -0,0 +1,142 @@
+package com.github.dfauth.dbstreamer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// counters for one table, every sample is also added to the parent so the global view needs no aggregation
+public class TableMetrics implements TableMetricsMXBean {
+
+    private final String name;
+    private final TableMetrics parent;
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder batchesRead = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder batchesWritten = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram fetchLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final AtomicLong firstWrite = new AtomicLong();
+    private final AtomicLong lastWrite = new AtomicLong();
+
+    public TableMetrics(String name, TableMetrics parent) {
+        this.name = name;
+        this.parent = parent;
+    }
+
+    // bytes are the estimate the source reader sizes batches by, or the bytes of the file read
+    public void read(int rows, long bytes, long nanos) {
+        rowsRead.add(rows);
+        batchesRead.increment();
+        bytesRead.add(bytes);
+        fetchLatency.record(nanos);
+        if(parent != null) {
+            parent.read(rows, bytes, nanos);
+        }
+    }
+
+    public void written(int rows, long bytes, long nanos) {
+        long now = System.nanoTime();
+        firstWrite.compareAndSet(0, now - nanos);
+        lastWrite.set(now);
+        rowsWritten.add(rows);
+        batchesWritten.increment();
+        bytesWritten.add(bytes);
+        writeLatency.record(nanos);
+        if(parent != null) {
+            parent.written(rows, bytes, nanos);
+        }
+    }
+
+    public void error() {
+        errors.increment();
+        if(parent != null) {
+            parent.error();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.sum();
+    }
+
+    @Override
+    public long getBatchesRead() {
+        return batchesRead.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    @Override
+    public long getBatchesWritten() {
+        return batchesWritten.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    // batches read but not yet written, i.e. held in the read ahead queues or being written
+    @Override
+    public long getQueueDepth() {
+        return Math.max(0, batchesRead.sum() - batchesWritten.sum());
+    }
+
+    @Override
+    public double getRowsWrittenPerSecond() {
+        long first = firstWrite.get();
+        long elapsed = lastWrite.get() - first;
+        return first == 0 || elapsed <= 0 ? 0 : rowsWritten.sum() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFetchLatency() {
+        return fetchLatency.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getWriteLatency() {
+        return writeLatency.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        rowsRead.reset();
+        batchesRead.reset();
+        bytesRead.reset();
+        rowsWritten.reset();
+        batchesWritten.reset();
+        bytesWritten.reset();
+        errors.reset();
+        fetchLatency.reset();
+        writeLatency.reset();
+        firstWrite.set(0);
+        lastWrite.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "TableMetrics("+name+", read="+getRowsRead()+", written="+getRowsWritten()+", errors="+getErrors()+", rows/s="+(long) getRowsWrittenPerSecond()+", write "+getWriteLatency()+")";
+    }
+}
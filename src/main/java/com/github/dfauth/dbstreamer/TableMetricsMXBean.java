@@ -0,0 +1,30 @@
+package com.github.dfauth.dbstreamer;
+
+public interface TableMetricsMXBean {
+
+    String getName();
+
+    long getRowsRead();
+
+    long getBatchesRead();
+
+    long getBytesRead();
+
+    long getRowsWritten();
+
+    long getBatchesWritten();
+
+    long getBytesWritten();
+
+    long getErrors();
+
+    long getQueueDepth();
+
+    double getRowsWrittenPerSecond();
+
+    LatencyHistogram.Snapshot getFetchLatency();
+
+    LatencyHistogram.Snapshot getWriteLatency();
+
+    void reset();
+}
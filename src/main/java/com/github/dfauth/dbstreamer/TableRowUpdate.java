@@ -26,10 +26,7 @@ public class TableRowUpdate {
 
     public void addBatch(PreparedStatement pstmt) {
         try {
-            int i=1;
-            for(ColumnUpdate u: updates) {
-                u.update(pstmt, i++);
-            }
+            tableDef.getCodec().bind(pstmt, updates);
             pstmt.addBatch();
         } catch (SQLException e) {
             logger.error(e.getMessage(), e);
@@ -8,169 +8,267 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.stream.IntStream;
+import java.util.stream.Collectors;
 
 public class TargetDatabase extends AbstractDatabase {
 
-    public TargetDatabase(DataSource dataSource) {
-        super(dataSource);
-    }
+    private final Executor executor;
+    private final Metrics metrics;
+    private volatile boolean referentialIntegrityDisabled = false;
 
-    public List<String> tables() {
-        Connection connection = null;
-        try {
-            List<String> tmp = new ArrayList<>();
-            connection = this.dataSource.getConnection();
-            PreparedStatement pstmt = connection.prepareStatement(getTableQuery());
-            ResultSet resultSet = pstmt.executeQuery();
-            while (resultSet.next()) {
-                String tableName = resultSet.getString(1);
-                tmp.add(tableName);
-            }
-            return tmp;
-        } catch (SQLException e) {
-            logger.error(e.getMessage(), e);
-            throw new RuntimeException(e);
-        } finally {
-            if(connection != null) {
-                try {
-                    connection.close();
-                } catch (SQLException e) {
-                    logger.error(e.getMessage(), e);
-                }
-            }
-        }
+    public TargetDatabase(DataSource dataSource, Executor executor) {
+        this(dataSource, executor, Metrics.platform());
     }
 
-    private ColumnDefinition toColumnDefinition(String table, int ordinalPosition, String columnName, String sqlDataType) {
-        DataType dataType = DataType.Factory.findBySqlType(sqlDataType).create();
-        return new ColumnDefinition(table, ordinalPosition, columnName, dataType);
+    public TargetDatabase(DataSource dataSource, Executor executor, Metrics metrics) {
+        super(dataSource);
+        this.executor = executor;
+        this.metrics = metrics;
     }
 
-    private String getTableQuery() {
-        return "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA='PUBLIC'";
+    public Subscriber<RowBatch> asSubscriberFor(TableDefinition tableDefinition, Consumer<Boolean> completionListener, Consumer<Throwable> exceptionListener) {
+        return asSubscriberFor(tableDefinition, WriteOptions.DEFAULT, completionListener, exceptionListener);
     }
 
-    private String getColumnQuery(String tableName) {
-        return String.format("SELECT COLUMN_NAME, ORDINAL_POSITION, DATA_TYPE FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_NAME='%s'", tableName);
+    public Subscriber<RowBatch> asSubscriberFor(TableDefinition tableDefinition, WriteOptions options, Consumer<Boolean> completionListener, Consumer<Throwable> exceptionListener) {
+        return asSubscriberFor(tableDefinition, options, BatchSizeController.fixed(SourceDatabase.DEFAULT_BATCH_SIZE), completionListener, exceptionListener);
     }
 
-    public SortedSet<ColumnDefinition> columnDefs(String table) {
-        Connection connection = null;
-        try {
-            SortedSet<ColumnDefinition> tmp = new TreeSet<>(ColumnDefinition.comparator);
-            connection = this.dataSource.getConnection();
-            PreparedStatement pstmt = connection.prepareStatement(getColumnQuery(table));
-            ResultSet resultSet = pstmt.executeQuery();
-            while (resultSet.next()) {
-                String columnName = resultSet.getString(1);
-                int ordinalPosition = resultSet.getInt(2);
-                String dataType = resultSet.getString(3);
-                ColumnDefinition columnDef = toColumnDefinition(table, ordinalPosition, columnName, dataType);
-                tmp.add(columnDef);
-            }
-            return tmp;
-        } catch (SQLException e) {
-            logger.error(e.getMessage(), e);
-            throw new RuntimeException(e);
-        } finally {
-            if(connection != null) {
-                try {
-                    connection.close();
-                } catch (SQLException e) {
-                    logger.error(e.getMessage(), e);
+    public Subscriber<RowBatch> asSubscriberFor(TableDefinition tableDefinition, WriteOptions options, BatchSizeController controller, Consumer<Boolean> completionListener, Consumer<Throwable> exceptionListener) {
+
+        if(options.getWriters() > 1) {
+            List<BatchWriter> writers = new ArrayList<>();
+            try {
+                for(int i=0; i<options.getWriters(); i++) {
+                    writers.add(newWriter(tableDefinition, options, controller));
                 }
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                writers.forEach(BatchWriter::close);
+                throw new RuntimeException(e);
+            } catch (RuntimeException e) {
+                logger.error(e.getMessage(), e);
+                writers.forEach(BatchWriter::close);
+                throw e;
             }
+            return new FanOutSubscriber(tableDefinition, writers, executor, options.isRollbackOnFailure(), completionListener, exceptionListener);
         }
-    }
-
-    public Subscriber<TableRowUpdate> asSubscriberFor(TableDefinition tableDefinition, int batchSize, Consumer<Boolean> completionListener, Consumer<Throwable> exceptionListener) {
 
-        return new Subscriber<TableRowUpdate>() {
-            private PreparedStatement pstmt;
-            Connection connection = null;
-            int cnt = 0;
+        return new Subscriber<RowBatch>() {
+            private Subscription subscription;
+            private BatchWriter writer;
+            boolean ok = true;
+            boolean failed = false;
             @Override
             public void onSubscribe(Subscription s) {
                 try {
-                    s.request(Long.MAX_VALUE);
-                    connection = dataSource.getConnection();
-                    pstmt = connection.prepareStatement(insertStatement(tableDefinition));
-                } catch (SQLException e) {
+                    writer = newWriter(tableDefinition, options, controller);
+                } catch (SQLException | RuntimeException e) {
+                    // onSubscribe must not throw, the failure is reported like any other
                     logger.error(e.getMessage(), e);
-                    throw new RuntimeException(e);
+                    failed = true;
+                    s.cancel();
+                    exceptionListener.accept(e);
+                    return;
                 }
+                subscription = s;
+                subscription.request(1);
             }
 
             @Override
-            public void onNext(TableRowUpdate tableRowUpdate) {
+            public void onNext(RowBatch batch) {
+                if(failed) {
+                    return;
+                }
                 try {
-                    tableRowUpdate.addBatch(pstmt);
-                    cnt++;
-                    if(cnt%batchSize == 0) {
-                        int[] result = pstmt.executeBatch();
-                        logger.info("onNext: cnt: "+cnt+" pstmt.executeBatch() result: "+ IntStream.of(result).mapToObj(i -> i == 1).reduce((b1, b2) -> b1 & b2).orElse(false));
-                    }
+                    boolean b = writer.write(batch);
+                    ok &= b;
+                    logger.info("onNext: cnt: "+writer.getCount()+" executeBatch() result: "+b);
                 } catch (SQLException e) {
+                    ok = false;
                     logger.error(e.getMessage(), e);
-//                    throw new RuntimeException(e);
+                    if(options.isRollbackOnFailure()) {
+                        fail(e);
+                        return;
+                    }
+                    // some targets refuse every later statement in a transaction that has failed
+                    writer.rollback();
                 }
+                // only ask for the next batch once this one is flushed, bounding rows held in memory
+                subscription.request(1);
             }
 
             @Override
             public void onError(Throwable t) {
                 logger.error("onError("+t+")");
-                exceptionListener.accept(t);
-                close();
+                if(failed) {
+                    return;
+                }
+                if(options.isRollbackOnFailure()) {
+                    fail(t);
+                } else {
+                    try {
+                        writer.complete();
+                    } catch (SQLException e) {
+                        logger.error(e.getMessage(), e);
+                    }
+                    writer.close();
+                    exceptionListener.accept(t);
+                }
             }
 
             @Override
             public void onComplete() {
+                if(failed) {
+                    return;
+                }
                 try {
-                    boolean b = false;
-                    if(cnt%batchSize != 0) {
-                        int[] result = pstmt.executeBatch();
-                        b = IntStream.of(result).mapToObj(i -> i == 1).reduce((b1, b2) -> b1 & b2).orElse(false);
-                        logger.info("onComplete:  cnt: "+cnt+" pstmt.executeBatch() result: "+b);
+                    writer.complete();
+                    logger.info("onComplete: cnt: "+writer.getCount()+" result: "+ok);
+                    if(controller.isAdaptive()) {
+                        logger.info("batch size for "+tableDefinition.getName()+" settled at "+controller.getBatchSize());
                     }
-                    close();
-                    completionListener.accept(b);
+                    writer.close();
+                    completionListener.accept(ok);
                 } catch (SQLException e) {
                     logger.error(e.getMessage(), e);
-                    throw new RuntimeException(e);
+                    fail(e);
                 }
             }
 
-            private void close() {
-                if(connection != null) {
-                    try {
-                        connection.close();
-                    } catch (SQLException e) {
-                        logger.error(e.getMessage(), e);
+            private void fail(Throwable t) {
+                failed = true;
+                subscription.cancel();
+                writer.rollback();
+                writer.close();
+                exceptionListener.accept(t);
+            }
+        };
+    }
+
+    // every writer connection carries the session scoped integrity setting of the run
+    BatchWriter newWriter(TableDefinition tableDefinition, WriteOptions options, BatchSizeController controller) throws SQLException {
+        return new BatchWriter(tableDefinition, dataSource.getConnection(), getDialect(), options, controller, metrics.forTable(tableDefinition.getName()), referentialIntegrityDisabled);
+    }
+
+    public int delete(Chunk chunk) {
+        return executeWithSessionChecks(String.format("delete from %s%s", chunk.getTable(), chunk.getWhereClause()), p -> {
+            try {
+                bind(p, chunk);
+                return p.executeUpdate();
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    // removes rows by primary key, each key holding the values of the key columns in order
+    public int delete(TableDefinition tableDef, Collection<List<Object>> keys) {
+        String predicate = tableDef.getPrimaryKey().stream().map(k -> k+" = ?").collect(Collectors.joining(" and "));
+        return executeWithSessionChecks(String.format("delete from %s where %s", tableDef.getName(), predicate), p -> {
+            try {
+                for(List<Object> key : keys) {
+                    for(int i=0; i<key.size(); i++) {
+                        p.setObject(i+1, key.get(i));
                     }
+                    p.addBatch();
                 }
+                int n = 0;
+                for(int i : p.executeBatch()) {
+                    n += Math.max(i, 0);
+                }
+                return n;
+            } catch (SQLException e) {
+                logger.error(e.getMessage(), e);
+                throw new RuntimeException(e);
             }
-        };
+        });
     }
 
-    private String insertStatement(TableDefinition tableDef) {
+    // executePreparedStatement, on a connection that has foreign key checks switched off while the run has them disabled
+    // and the dialect only scopes that per session
+    private <T> T executeWithSessionChecks(String sql, Function<PreparedStatement, T> f) {
+        Optional<String> disable = getDialect().sessionReferentialIntegrityStatement(false);
+        if(!referentialIntegrityDisabled || !disable.isPresent()) {
+            return executePreparedStatement(sql, f);
+        }
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            try(Statement st = connection.createStatement()) {
+                st.execute(disable.get());
+            }
+            try {
+                PreparedStatement pstmt = connection.prepareStatement(sql);
+                T result = f.apply(pstmt);
+                logger.info("result: " + result + " for sql: " + sql);
+                return result;
+            } finally {
+                // a pooled connection would otherwise carry the setting to its next user
+                try(Statement st = connection.createStatement()) {
+                    st.execute(getDialect().sessionReferentialIntegrityStatement(true).get());
+                }
+            }
+        } catch (SQLException e) {
+            logger.error(e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            if(connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    static String insertStatement(TableDefinition tableDef) {
+        return insertStatement(tableDef, 1);
+    }
+
+    static String insertStatement(TableDefinition tableDef, int rows) {
         Supplier<IllegalArgumentException> supplier = () -> new IllegalArgumentException("table definition "+tableDef+" contains no columns");
         Optional<String> columns = tableDef.getColumnDefs().stream().map(cd -> cd.getName()).reduce((s, s2) -> s + ","+s2);
         Optional<String> questionMarks = tableDef.getColumnDefs().stream().map(cd -> cd.getName()).map(v -> "?").reduce((s, s2) -> s+","+s2);
-        return columns.flatMap(s -> questionMarks.map(r -> String.format("insert into %s (%s) values (%s);", tableDef.getName(), s, r))).orElseThrow(supplier);
+        Optional<String> values = questionMarks.map(q -> String.join(",", Collections.nCopies(rows, "("+q+")")));
+        return columns.flatMap(s -> values.map(r -> String.format("insert into %s (%s) values %s;", tableDef.getName(), s, r))).orElseThrow(supplier);
     }
 
-    public void enableReferentialIntegrityChecks() {
-        executePreparedStatement("SET DATABASE REFERENTIAL INTEGRITY TRUE;");
+    static String upsertStatement(TableDefinition tableDef, Dialect dialect, int rows) {
+        if(tableDef.getPrimaryKey().isEmpty()) {
+            throw new IllegalArgumentException("cannot upsert into "+tableDef.getName()+", it has no primary key");
+        }
+        List<String> columns = tableDef.getColumnDefs().stream().map(ColumnDefinition::getName).collect(Collectors.toList());
+        if(columns.isEmpty()) {
+            throw new IllegalArgumentException("table definition "+tableDef+" contains no columns");
+        }
+        return dialect.upsertStatement(tableDef.getName(), columns, tableDef.getPrimaryKey(), rows);
     }
 
-    public void disableReferentialIntegrityChecks() {
-        executePreparedStatement("SET DATABASE REFERENTIAL INTEGRITY FALSE;");
+    public void enableReferentialIntegrityChecks(List<String> tables) {
+        referentialIntegrityDisabled = false;
+        getDialect().referentialIntegrityStatements(tables, true).ifPresent(l -> l.forEach(this::executePreparedStatement));
+    }
+
+    // false where the dialect cannot switch the checks off, the copy then relies on the order tables are written in
+    public boolean disableReferentialIntegrityChecks(List<String> tables) {
+        Optional<List<String>> statements = getDialect().referentialIntegrityStatements(tables, false);
+        if(!statements.isPresent()) {
+            logger.warn("referential integrity checks cannot be disabled on "+getDialect()+", relying on the order tables are written in");
+            return false;
+        }
+        statements.get().forEach(this::executePreparedStatement);
+        referentialIntegrityDisabled = true;
+        return true;
     }
 
 }
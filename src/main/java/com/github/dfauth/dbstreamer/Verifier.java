@@ -0,0 +1,93 @@
+package com.github.dfauth.dbstreamer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// compares source and target a key range at a time. each range is digested on both sides concurrently,
+// inside the database when both share a dialect that can hash rows, otherwise by reading the range back.
+// column transforms applied during the copy are not replayed, transformed tables are expected to differ
+public class Verifier implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Verifier.class);
+    public static final int DEFAULT_RANGES = 16;
+
+    private final SourceDatabase source;
+    private final TargetDatabase target;
+    private final ExecutorService executor;
+    private final boolean pushdown;
+
+    public Verifier(SourceDatabase source, TargetDatabase target, int parallelism) {
+        this.source = source;
+        this.target = target;
+        this.executor = Executors.newFixedThreadPool(parallelism, new ExecutionEngine.NamedThreadFactory("dbstreamer-verify"));
+        this.pushdown = source.getDialect() == target.getDialect() && source.getDialect().digestQuery("T", Collections.singletonList("C"), "").isPresent();
+        logger.info("verifying with "+(pushdown ? source.getDialect()+" digests" : "client side digests")+" on "+parallelism+" threads");
+    }
+
+    public List<Mismatch> verify(List<TableDefinition> tables, Function<String, Integer> ranges) {
+        List<CompletableFuture<Optional<Mismatch>>> futs = tables.stream()
+                .flatMap(td -> source.chunksFor(td, ranges.apply(td.getName())).stream())
+                .map(this::verify)
+                .collect(Collectors.toList());
+        List<Mismatch> mismatches = futs.stream().map(CompletableFuture::join).filter(Optional::isPresent).map(Optional::get).collect(Collectors.toList());
+        logger.info("verified "+futs.size()+" ranges of "+tables.size()+" tables, "+mismatches.size()+" mismatched");
+        return mismatches;
+    }
+
+    public CompletableFuture<Optional<Mismatch>> verify(Chunk chunk) {
+        CompletableFuture<RangeDigest> s = CompletableFuture.supplyAsync(() -> source.digest(chunk, pushdown), executor);
+        CompletableFuture<RangeDigest> t = CompletableFuture.supplyAsync(() -> target.digest(chunk, pushdown), executor);
+        return s.thenCombine(t, (sd, td) -> {
+            if(sd.equals(td)) {
+                return Optional.<Mismatch>empty();
+            }
+            Mismatch m = new Mismatch(chunk, sd, td);
+            logger.warn(m.toString());
+            return Optional.of(m);
+        });
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    public static class Mismatch {
+
+        private final Chunk chunk;
+        private final RangeDigest source;
+        private final RangeDigest target;
+
+        public Mismatch(Chunk chunk, RangeDigest source, RangeDigest target) {
+            this.chunk = chunk;
+            this.source = source;
+            this.target = target;
+        }
+
+        public Chunk getChunk() {
+            return chunk;
+        }
+
+        public RangeDigest getSource() {
+            return source;
+        }
+
+        public RangeDigest getTarget() {
+            return target;
+        }
+
+        @Override
+        public String toString() {
+            return "Mismatch("+chunk+", source="+source+", target="+target+")";
+        }
+    }
+}
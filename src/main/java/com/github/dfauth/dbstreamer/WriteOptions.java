@@ -0,0 +1,123 @@
+package com.github.dfauth.dbstreamer;
+
+public class WriteOptions {
+
+    public static final int DEFAULT_ROWS_PER_STATEMENT = 500;
+    public static final WriteOptions DEFAULT = new WriteOptions(WriteMode.BATCH, DEFAULT_ROWS_PER_STATEMENT, CommitMode.BATCHES, 1, true, 1, false);
+
+    public enum WriteMode {
+        BATCH,
+        MULTI_ROW
+    }
+
+    public enum CommitMode {
+        AUTO,       // leave the connection in auto-commit, the driver commits each statement
+        BATCHES,    // commit every commitInterval batches
+        ROWS,       // commit once at least commitInterval rows are pending
+        CHUNK       // a single transaction per table chunk (per table when it is not chunked)
+    }
+
+    private final WriteMode mode;
+    private final int rowsPerStatement;
+    private final CommitMode commitMode;
+    private final int commitInterval;
+    private final boolean rollbackOnFailure;
+    private final int writers;
+    private final boolean upsert;
+
+    public WriteOptions(WriteMode mode, int rowsPerStatement, CommitMode commitMode, int commitInterval, boolean rollbackOnFailure) {
+        this(mode, rowsPerStatement, commitMode, commitInterval, rollbackOnFailure, 1, false);
+    }
+
+    public WriteOptions(WriteMode mode, int rowsPerStatement, CommitMode commitMode, int commitInterval, boolean rollbackOnFailure, int writers, boolean upsert) {
+        if(writers > 1 && commitMode == CommitMode.CHUNK) {
+            // each writer would hold its transaction open until the chunk ends, and on a target that locks whole
+            // tables the others wait on it forever
+            throw new IllegalArgumentException("a single transaction per chunk cannot be spread across "+writers+" writers");
+        }
+        this.mode = mode;
+        this.rowsPerStatement = rowsPerStatement;
+        this.commitMode = commitMode;
+        this.commitInterval = commitInterval;
+        this.rollbackOnFailure = rollbackOnFailure;
+        this.writers = writers;
+        this.upsert = upsert;
+    }
+
+    public static WriteOptions multiRow(int rowsPerStatement) {
+        return DEFAULT.withMode(WriteMode.MULTI_ROW).withRowsPerStatement(rowsPerStatement);
+    }
+
+    public WriteOptions withMode(WriteMode mode) {
+        return new WriteOptions(mode, rowsPerStatement, commitMode, commitInterval, rollbackOnFailure, writers, upsert);
+    }
+
+    public WriteOptions withRowsPerStatement(int rowsPerStatement) {
+        return new WriteOptions(mode, rowsPerStatement, commitMode, commitInterval, rollbackOnFailure, writers, upsert);
+    }
+
+    public WriteOptions withCommitEvery(CommitMode commitMode, int commitInterval) {
+        return new WriteOptions(mode, rowsPerStatement, commitMode, commitInterval, rollbackOnFailure, writers, upsert);
+    }
+
+    public WriteOptions withAutoCommit() {
+        return withCommitEvery(CommitMode.AUTO, 0);
+    }
+
+    public WriteOptions withSingleTransaction() {
+        return withCommitEvery(CommitMode.CHUNK, 0);
+    }
+
+    // by default the first failed batch stops the chunk and rolls back what it has not committed. without it a failed
+    // batch is rolled back and skipped and the rest are still written, for a best effort copy; either way the table
+    // fails once its stream ends
+    public WriteOptions withRollbackOnFailure(boolean rollbackOnFailure) {
+        return new WriteOptions(mode, rowsPerStatement, commitMode, commitInterval, rollbackOnFailure, writers, upsert);
+    }
+
+    // number of target connections a single source stream is spread across; each commits independently.
+    // on targets that lock whole tables (e.g. HSQLDB in its default LOCKS mode) a writer waits for the others to
+    // commit, so transactions are kept to a few batches. a single transaction per chunk would never be committed
+    // and is refused with more than one writer
+    public WriteOptions withWriters(int writers) {
+        return new WriteOptions(mode, rowsPerStatement, commitMode, commitInterval, rollbackOnFailure, writers, upsert);
+    }
+
+    // rows whose primary key already exists in the target are updated rather than inserted, so re-runs are idempotent
+    public WriteOptions withUpsert(boolean upsert) {
+        return new WriteOptions(mode, rowsPerStatement, commitMode, commitInterval, rollbackOnFailure, writers, upsert);
+    }
+
+    public WriteMode getMode() {
+        return mode;
+    }
+
+    public int getRowsPerStatement() {
+        return rowsPerStatement;
+    }
+
+    public CommitMode getCommitMode() {
+        return commitMode;
+    }
+
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+    public boolean isRollbackOnFailure() {
+        return rollbackOnFailure;
+    }
+
+    public int getWriters() {
+        return writers;
+    }
+
+    public boolean isUpsert() {
+        return upsert;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteOptions(mode="+mode+", rowsPerStatement="+rowsPerStatement+", commitMode="+commitMode+", commitInterval="+commitInterval+", rollbackOnFailure="+rollbackOnFailure+", writers="+writers+", upsert="+upsert+")";
+    }
+}
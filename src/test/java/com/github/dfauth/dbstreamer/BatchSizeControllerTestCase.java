@@ -0,0 +1,25 @@
+package com.github.dfauth.dbstreamer;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class BatchSizeControllerTestCase {
+
+    @Test
+    public void testFailedBatchShrinks() {
+        BatchSizeController controller = BatchSizeController.adaptive(8000, 100, 10000, 100, TimeUnit.MILLISECONDS);
+        controller.failed(8000);
+        assertEquals(controller.getBatchSize(), 4000);
+        for(int i=0; i<10; i++) {
+            controller.failed(controller.getBatchSize());
+        }
+        assertEquals(controller.getBatchSize(), 100);
+
+        BatchSizeController fixed = BatchSizeController.fixed(8000);
+        fixed.failed(8000);
+        assertEquals(fixed.getBatchSize(), 8000);
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.dfauth.dbstreamer;
+
+import org.testng.annotations.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static com.github.dfauth.dbstreamer.TestDatabases.dataSource;
+import static org.testng.Assert.*;
+
+public class BatchWriterTestCase {
+
+    private static TableDefinition create(DataSource ds) throws SQLException {
+        try(Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+            st.execute("create table EMP (ID integer primary key, NAME varchar(20), SALARY integer)");
+        }
+        return new DbStreamer(null, ds).sniff().get(0);
+    }
+
+    @Test
+    public void testMultiRowInsertStatement() throws SQLException {
+        TableDefinition td = create(dataSource());
+        assertEquals(TargetDatabase.insertStatement(td), "insert into EMP (ID,NAME,SALARY) values (?,?,?);");
+        assertEquals(TargetDatabase.insertStatement(td, 3), "insert into EMP (ID,NAME,SALARY) values (?,?,?),(?,?,?),(?,?,?);");
+    }
+
+    @Test
+    public void testRowsPerStatementCap() {
+        // single row modes never bind more than one row
+        assertEquals(BatchWriter.rowsPerStatement(WriteOptions.DEFAULT, Dialect.GENERIC, 3), 1);
+        assertEquals(BatchWriter.rowsPerStatement(WriteOptions.multiRow(50), Dialect.GENERIC, 3), 50);
+        // maxParameters / width
+        assertEquals(BatchWriter.rowsPerStatement(WriteOptions.multiRow(1000), Dialect.GENERIC, 3), 333);
+        assertEquals(BatchWriter.rowsPerStatement(WriteOptions.multiRow(1000), Dialect.SQLSERVER, 3), 700);
+        assertEquals(BatchWriter.rowsPerStatement(WriteOptions.multiRow(5000), Dialect.MYSQL, 7), 65535 / 7);
+        // the row limit of a table value constructor, when the parameters would allow more
+        assertEquals(BatchWriter.rowsPerStatement(WriteOptions.multiRow(5000), Dialect.SQLSERVER, 1), 1000);
+        // a table wider than the parameter limit still gets a row per statement
+        assertEquals(BatchWriter.rowsPerStatement(WriteOptions.multiRow(100), Dialect.GENERIC, 2000), 1);
+    }
+
+    @Test
+    public void testMultiRowWriteAcrossFullAndPartialStatements() throws SQLException {
+        DataSource ds = dataSource();
+        TableDefinition td = create(ds);
+        int rows = 700;
+        RowBatch batch = td.getCodec().newBatch(rows);
+        for(int id=0; id<rows; id++) {
+            int row = batch.addRow();
+            batch.set(0, row, id);
+            batch.set(1, row, id % 7 == 0 ? null : "name"+id);
+            batch.set(2, row, id * 10);
+        }
+
+        // GENERIC caps the 1000 rows asked for at 333, so two full statements and a partial one of 34 rows
+        BatchWriter writer = new BatchWriter(td, ds.getConnection(), Dialect.GENERIC, WriteOptions.multiRow(1000), BatchSizeController.fixed(rows), new TableMetrics("EMP", null));
+        try {
+            assertTrue(writer.write(batch));
+            writer.complete();
+        } finally {
+            writer.close();
+        }
+
+        try(Connection c = ds.getConnection(); Statement st = c.createStatement(); ResultSet rs = st.executeQuery("select ID, NAME, SALARY from EMP order by ID")) {
+            int id = 0;
+            while(rs.next()) {
+                assertEquals(rs.getInt(1), id);
+                assertEquals(rs.getString(2), id % 7 == 0 ? null : "name"+id);
+                assertEquals(rs.getInt(3), id * 10);
+                id++;
+            }
+            assertEquals(id, rows);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class CsvTestCase {
+
+    private static final int ROWS = 1000;
+
+    private final TableMetrics metrics = new Metrics(null).forTable("T");
+    private Path dir;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("csv");
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        CsvFormat.DEFAULT.remove(dir, "T");
+        Files.deleteIfExists(dir);
+    }
+
+    private static TableDefinition table(String... types) {
+        SortedSet<ColumnDefinition> columns = new TreeSet<>(ColumnDefinition.comparator);
+        for(int i=0; i<types.length; i++) {
+            columns.add(new ColumnDefinition("T", i+1, "C"+(i+1), DataType.Factory.findBySqlType(types[i]).create()));
+        }
+        return new TableDefinition("T", columns);
+    }
+
+    private Path write(CsvFormat format, TableDefinition td, RowBatch batch) throws Exception {
+        Path file = format.fileFor(dir, "T", 0);
+        CompletableFuture<Boolean> written = new CompletableFuture<>();
+        Subscriber<RowBatch> writer = format.writerFor(file, td, metrics, written::complete, written::completeExceptionally);
+        writer.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        writer.onNext(batch);
+        writer.onComplete();
+        assertTrue(written.get(10, TimeUnit.SECONDS));
+        return file;
+    }
+
+    private static List<Object[]> read(List<Publisher<RowBatch>> readers) throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        for(Publisher<RowBatch> reader : readers) {
+            CompletableFuture<Void> fut = new CompletableFuture<>();
+            reader.subscribe(new Subscriber<RowBatch>() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    s.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(RowBatch b) {
+                    for(int row=0; row<b.size(); row++) {
+                        Object[] tmp = new Object[b.width()];
+                        for(int col=0; col<b.width(); col++) {
+                            tmp[col] = b.get(col, row);
+                        }
+                        rows.add(tmp);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    fut.completeExceptionally(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    fut.complete(null);
+                }
+            });
+            fut.get(10, TimeUnit.SECONDS);
+        }
+        return rows;
+    }
+
+    @Test
+    public void testRoundTripInParts() throws Exception {
+        TableDefinition td = table("integer", "bigint", "double precision", "character varying", "numeric", "timestamp", "boolean");
+        RowBatch batch = td.getCodec().newBatch(ROWS);
+        for(int i=0; i<ROWS; i++) {
+            int row = batch.addRow();
+            batch.set(0, row, i);
+            batch.set(1, row, i % 5 == 0 ? null : -((long) i << 33));
+            batch.set(2, row, i * 0.25);
+            batch.set(3, row, i % 3 == 0 ? null : i % 3 == 1 ? "" : "r\u00e9sum\u00e9, \"quoted\" "+i);
+            batch.set(4, row, new BigDecimal(i).movePointLeft(3));
+            Timestamp ts = new Timestamp(1000L * i);
+            ts.setNanos(i * 7);
+            batch.set(5, row, ts);
+            batch.set(6, row, i % 2 == 0);
+        }
+
+        CsvFormat format = CsvFormat.DEFAULT.withSplitBytes(4096);
+        Path file = write(format, td, batch);
+        assertEquals(format.filesFor(dir, "T"), Collections.singletonList(file));
+
+        List<Publisher<RowBatch>> readers = format.readersFor(file, td, 64, executor, metrics);
+        assertTrue(readers.size() > 1, "expected "+file+" to be read in parts");
+        List<Object[]> rows = read(readers);
+
+        // every row is read exactly once, by the part it starts in
+        assertEquals(rows.size(), ROWS);
+        for(int row=0; row<ROWS; row++) {
+            for(int col=0; col<batch.width(); col++) {
+                assertEquals(rows.get(row)[col], batch.get(col, row), "row "+row+" column "+col);
+            }
+        }
+    }
+
+    @Test
+    public void testYearsBeyondFourDigits() throws Exception {
+        TableDefinition td = table("date", "timestamp");
+        LocalDateTime[] values = {
+                LocalDateTime.of(2026, 10, 18, 1, 2, 3, 4),
+                LocalDateTime.of(10000, 1, 1, 0, 0),
+                LocalDateTime.of(12345, 6, 7, 8, 9, 10, 11)
+        };
+        RowBatch batch = td.getCodec().newBatch(values.length);
+        for(LocalDateTime t : values) {
+            int row = batch.addRow();
+            batch.set(0, row, java.sql.Date.valueOf(t.toLocalDate()));
+            batch.set(1, row, Timestamp.valueOf(t));
+        }
+        Path file = write(CsvFormat.DEFAULT, td, batch);
+
+        List<Object[]> rows = read(CsvFormat.DEFAULT.readersFor(file, td, 64, executor, metrics));
+        assertEquals(rows.size(), values.length);
+        for(int row=0; row<values.length; row++) {
+            assertEquals(((java.sql.Date) rows.get(row)[0]).toLocalDate(), values[row].toLocalDate(), "row "+row);
+            assertEquals(((Timestamp) rows.get(row)[1]).toLocalDateTime(), values[row], "row "+row);
+        }
+    }
+
+    @Test
+    public void testLineBreaksInQuotedValues() throws Exception {
+        TableDefinition td = table("integer", "character varying");
+        RowBatch batch = td.getCodec().newBatch(200);
+        for(int i=0; i<200; i++) {
+            int row = batch.addRow();
+            batch.set(0, row, i);
+            batch.set(1, row, "line one\n1000,fake");
+        }
+        Path file = write(CsvFormat.DEFAULT, td, batch);
+
+        // read whole by default
+        List<Object[]> rows = read(CsvFormat.DEFAULT.readersFor(file, td, 64, executor, metrics));
+        assertEquals(rows.size(), 200);
+        for(int row=0; row<200; row++) {
+            assertEquals(rows.get(row)[0], row);
+            assertEquals(rows.get(row)[1], "line one\n1000,fake");
+        }
+
+        // a part starting inside a quoted value fails rather than inventing rows
+        try {
+            read(CsvFormat.DEFAULT.withSplitBytes(257).readersFor(file, td, 64, executor, metrics));
+            fail("parts split inside quoted values should not be read");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+        }
+    }
+
+    @Test
+    public void testNullsInSingleColumnTable() throws Exception {
+        for(String type : new String[]{"integer", "character varying"}) {
+            TableDefinition td = table(type);
+            RowBatch batch = td.getCodec().newBatch(ROWS);
+            for(int i=0; i<ROWS; i++) {
+                int row = batch.addRow();
+                // a null is an empty line, the first and last rows among them
+                batch.set(0, row, i % 3 == 0 || i == ROWS - 1 ? null : type.equals("integer") ? (Object) i : i % 3 == 1 ? "" : "v"+i);
+            }
+
+            for(CsvFormat format : new CsvFormat[]{CsvFormat.DEFAULT, CsvFormat.DEFAULT.withSplitBytes(512)}) {
+                Path file = write(format, td, batch);
+                List<Object[]> rows = read(format.readersFor(file, td, 64, executor, metrics));
+
+                assertEquals(rows.size(), ROWS, type);
+                for(int row=0; row<ROWS; row++) {
+                    assertEquals(rows.get(row)[0], batch.get(0, row), type+" row "+row);
+                }
+            }
+        }
+    }
+}
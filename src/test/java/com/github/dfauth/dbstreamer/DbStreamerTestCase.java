@@ -0,0 +1,483 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.annotations.Test;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import static com.github.dfauth.dbstreamer.TestDatabases.dataSource;
+import static com.github.dfauth.dbstreamer.TestDatabases.execute;
+import static org.testng.Assert.*;
+
+public class DbStreamerTestCase {
+
+    @Test
+    public void testSelfReferencingTable() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String ddl = "create table EMP (ID integer primary key, MGR integer references EMP(ID))";
+        execute(source, ddl, "insert into EMP values (2, null)", "insert into EMP values (1, 2)");
+        execute(target, ddl);
+
+        DbStreamer streamer = new DbStreamer(source, target);
+        streamer.stream();
+
+        assertEquals(streamer.getTargetdB().countRows("EMP"), 2);
+    }
+
+    @Test
+    public void testSingleWriterWithIntegrityChecksDisabled() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String ddl = "create table EMP (ID integer primary key, MGR integer references EMP(ID))";
+        execute(source, ddl, "insert into EMP values (2, null)", "insert into EMP values (1, 2)");
+        execute(target, ddl);
+
+        // one row per batch, so the child is written and committed before its manager
+        DbStreamer streamer = new DbStreamer(source, target).withBatchSize(1).withWriteOptions(WriteOptions.DEFAULT.withWriters(1)).withReferentialIntegrityChecksDisabled();
+        streamer.stream();
+
+        assertEquals(streamer.getTargetdB().countRows("EMP"), 2);
+        try {
+            execute(target, "insert into EMP values (3, 99)");
+            fail("checks should be enabled again once the run is over");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testManyChunksWaitForIoThreads() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String ddl = "create table T (ID integer primary key, NAME varchar(10))";
+        execute(source, ddl);
+        execute(target, ddl);
+        try(Connection c = source.getConnection(); Statement st = c.createStatement()) {
+            for(int i=0; i<400; i++) {
+                st.execute("insert into T values ("+i+", 'n"+i+"')");
+            }
+        }
+
+        // far more chunks than the io threads could serve at once
+        DbStreamer streamer = new DbStreamer(source, target).withTableParallelism(1).withChunks(100).withChunksInFlight(2).withIoThreads(ExecutionEngine.ioThreadsFor(1, 2, 1));
+        streamer.stream();
+
+        assertEquals(streamer.getTargetdB().countRows("T"), 400);
+    }
+
+    @Test
+    public void testWritersAndSpillAtTheIoThreadLimit() throws Exception {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String ddl = "create table T (ID integer primary key, NAME varchar(10))";
+        execute(source, ddl);
+        execute(target, ddl);
+        try(Connection c = source.getConnection(); PreparedStatement pstmt = c.prepareStatement("insert into T values (?, ?)")) {
+            for(int i=0; i<2000; i++) {
+                pstmt.setInt(1, i);
+                pstmt.setString(2, "n"+i);
+                pstmt.executeUpdate();
+            }
+        }
+        Path dir = Files.createTempDirectory("spill");
+        try {
+            // drains, spill drains and fanned out writers resubmit themselves on every batch, with no thread to spare
+            DbStreamer streamer = new DbStreamer(source, target).withTableParallelism(1).withChunks(20).withChunksInFlight(2)
+                    .withIoThreads(ExecutionEngine.ioThreadsFor(1, 2, 3)).withBatchSize(10).withSpill(dir, 1024)
+                    .withWriteOptions(WriteOptions.DEFAULT.withWriters(3));
+            streamer.stream();
+
+            assertEquals(streamer.getTargetdB().countRows("T"), 2000);
+        } finally {
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testColumnUpdateOnlyTransformsMatchingTables() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String[] ddl = {"create table A (ID integer primary key, NAME varchar(10))", "create table B (ID integer primary key, NAME varchar(10))"};
+        execute(source, ddl);
+        execute(source, "insert into A values (1, 'a')", "insert into B values (1, 'b')");
+        execute(target, ddl);
+
+        DbStreamer streamer = new DbStreamer(source, target).withColumnUpdate(t -> t.equals("A"), cu -> cu.getResult() instanceof String ? new ColumnUpdate(cu.getColumnDefinition(), cu.getResult().toString().toUpperCase()) : cu);
+        streamer.stream();
+
+        try(Connection c = target.getConnection(); Statement st = c.createStatement(); ResultSet rs = st.executeQuery("select A.NAME, B.NAME from A, B")) {
+            assertTrue(rs.next());
+            assertEquals(rs.getString(1), "A");
+            assertEquals(rs.getString(2), "b");
+        }
+        // tables left out by the filter have no transform at all rather than an identity one
+        assertNull(FilteringFunction.of((String t) -> t.equals("A"), UnaryOperator.<ColumnUpdate>identity()).apply("B"));
+    }
+
+    @Test
+    public void testFailedBatchFailsTheRun() throws SQLException {
+        for(boolean rollbackOnFailure : new boolean[]{true, false}) {
+            DataSource source = dataSource();
+            DataSource target = dataSource();
+            String ddl = "create table T (ID integer primary key, NAME varchar(10))";
+            execute(source, ddl, "insert into T values (1, 'a')", "insert into T values (2, 'b')", "insert into T values (3, 'c')");
+            execute(target, ddl, "insert into T values (2, 'b')");
+
+            DbStreamer streamer = new DbStreamer(source, target).withWriteOptions(WriteOptions.DEFAULT.withRollbackOnFailure(rollbackOnFailure));
+            try {
+                streamer.stream();
+                fail("a run with a failed batch should fail, rollbackOnFailure="+rollbackOnFailure);
+            } catch (RuntimeException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDescribeThroughDatabaseMetaData() throws SQLException {
+        DataSource target = dataSource();
+        execute(target, "create table A_B (ID smallint primary key, CODE char(3), AMT decimal(10,2))", "create table AXB (ID integer primary key)");
+
+        Map<String, TableDefinition> tables = new DbStreamer(null, target).sniff().stream().collect(Collectors.toMap(TableDefinition::getName, td -> td));
+
+        assertEquals(tables.keySet(), new HashSet<>(Arrays.asList("A_B", "AXB")));
+        List<Integer> types = tables.get("A_B").getColumnDefs().stream().map(cd -> cd.getDataType().sqlType()).collect(Collectors.toList());
+        assertEquals(types, Arrays.asList(Types.INTEGER, Types.VARCHAR, Types.NUMERIC));
+        assertEquals(tables.get("AXB").getColumnDefs().size(), 1);
+    }
+
+    @Test
+    public void testDifferentialCopyRemovesChildrenBeforeParents() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String[] ddl = {"create table DEPT (ID integer primary key, NAME varchar(10))", "create table EMP (ID integer primary key, DEPT_ID integer references DEPT(ID))"};
+        execute(source, ddl);
+        execute(target, ddl);
+        execute(source, "insert into DEPT values (1, 'a')", "insert into EMP values (1, 1)");
+        execute(target, "insert into DEPT values (1, 'b')", "insert into DEPT values (2, 'gone')", "insert into EMP values (1, 1)", "insert into EMP values (2, 2)");
+
+        new DbStreamer(source, target).withDifferential(1).stream();
+
+        DbStreamer streamer = new DbStreamer(source, target);
+        assertTrue(streamer.verify().isEmpty());
+        assertEquals(streamer.getTargetdB().countRows("DEPT"), 1);
+        assertEquals(streamer.getTargetdB().countRows("EMP"), 1);
+    }
+
+    @Test
+    public void testDifferentialCopyIsNeitherResumableNorIncremental() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String ddl = "create table T (ID integer primary key)";
+        execute(source, ddl, "insert into T values (1)");
+        execute(target, ddl);
+
+        TableCheckpointStore store = new TableCheckpointStore(dataSource());
+        List<DbStreamer> streamers = Arrays.asList(
+                new DbStreamer(source, target).withDifferential(1).withCheckpointStore(store).withResumable(true),
+                new DbStreamer(source, target).withDifferential(1).withCheckpointStore(store).withIncremental("ID"));
+        for(DbStreamer streamer : streamers) {
+            try {
+                streamer.stream();
+                fail("a differential copy ignores resumable and incremental settings");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains("differential"), e.getMessage());
+            }
+            assertEquals(streamer.getTargetdB().countRows("T"), 0);
+        }
+        assertTrue(store.entries("").isEmpty(), "left "+store.entries(""));
+    }
+
+    @Test
+    public void testLobHeavyChunkIsSplitByBytes() throws Exception {
+        DataSource source = dataSource();
+        execute(source, "create table DOC (ID integer primary key, BODY blob)");
+        byte[] body = new byte[10_000];
+        try(Connection c = source.getConnection(); PreparedStatement pstmt = c.prepareStatement("insert into DOC values (?, ?)")) {
+            for(int i=0; i<20; i++) {
+                Arrays.fill(body, (byte) i);
+                pstmt.setInt(1, i);
+                pstmt.setBytes(2, body);
+                pstmt.executeUpdate();
+            }
+        }
+        TableDefinition td = new DbStreamer(null, source).sniff().get(0);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            SourceDatabase db = new SourceDatabase(source, executor);
+            // the row count alone would fit every row into one batch, the bytes do not
+            Publisher<RowBatch> publisher = db.asPublisherFor(Chunk.all(td), 1000, ReadOptions.DEFAULT.withMaxBatchBytes(32_000));
+            List<RowBatch> batches = new ArrayList<>();
+            CompletableFuture<List<RowBatch>> fut = new CompletableFuture<>();
+            publisher.subscribe(new Subscriber<RowBatch>() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    s.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(RowBatch batch) {
+                    batches.add(batch);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    fut.completeExceptionally(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    fut.complete(batches);
+                }
+            });
+            List<RowBatch> tmp = fut.get(10, TimeUnit.SECONDS);
+            assertTrue(tmp.size() >= 5, "read in "+tmp.size()+" batches");
+            assertEquals(tmp.stream().mapToInt(RowBatch::size).sum(), 20);
+            for(RowBatch batch : tmp) {
+                // a batch is flushed by the row that takes it past the cap
+                assertTrue(batch.estimateBytes() < 32_000 + 2 * body.length, "batch of "+batch.estimateBytes()+" bytes");
+                for(int row=0; row<batch.size(); row++) {
+                    Blob blob = (Blob) batch.get(1, row);
+                    assertEquals(blob.length(), (long) body.length);
+                    assertEquals(blob.getBytes(1, 1)[0], (byte) batch.getInt(0, row));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testChunksAtTheEndsOfTheLongRange() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String ddl = "create table T (ID bigint primary key)";
+        execute(source, ddl, "insert into T values ("+Long.MIN_VALUE+")", "insert into T values (-1)", "insert into T values (0)", "insert into T values ("+Long.MAX_VALUE+")");
+        execute(target, ddl);
+
+        DbStreamer streamer = new DbStreamer(source, target).withChunks(4);
+        streamer.stream();
+        assertEquals(streamer.getTargetdB().countRows("T"), 4);
+
+        TableDefinition td = new DbStreamer(null, target).sniff().get(0);
+        List<Chunk> parts = Chunk.range(td, "ID", null, null).split(4, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(parts.size(), 4);
+        assertEquals(parts.get(0).getId(), "range:ID::-4611686018427387905");
+        assertEquals(parts.get(3).getId(), "range:ID:4611686018427387901:");
+    }
+
+    @Test
+    public void testRestartSkipsTablesCopiedByTheFailedRun() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        TableCheckpointStore store = new TableCheckpointStore(dataSource());
+        String[] ddl = {"create table A (ID integer primary key)", "create table B (ID integer primary key, A_ID integer references A(ID))"};
+        execute(source, ddl);
+        execute(source, "insert into A values (1)", "insert into A values (2)", "insert into B values (1, 1)", "insert into B values (2, 2)");
+        execute(target, ddl);
+        // B only runs once A is done, and then fails on the row already in the target
+        execute(target, "insert into A values (9)", "insert into B values (2, 9)");
+
+        try {
+            new DbStreamer(source, target).withCheckpointStore(store).withResumable(true).stream();
+            fail("the first run should fail on B");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(store.get("done:A"), Optional.of("DONE"));
+        assertFalse(store.get("done:B").isPresent());
+
+        execute(target, "delete from B where ID = 2");
+        // copying A again would violate its primary key
+        DbStreamer streamer = new DbStreamer(source, target).withCheckpointStore(store).withResumable(true);
+        streamer.stream();
+        assertEquals(streamer.getTargetdB().countRows("A"), 3);
+        assertEquals(streamer.getTargetdB().countRows("B"), 2);
+        assertTrue(store.entries("").isEmpty(), "left "+store.entries(""));
+    }
+
+    @Test
+    public void testALargePlanIsRecordedAndRestored() throws SQLException {
+        DataSource source = dataSource();
+        execute(source, "create table T (ID integer primary key)");
+        TableDefinition td = new DbStreamer(null, source).sniff().get(0);
+        TableCheckpointStore store = new TableCheckpointStore(dataSource());
+        // far more chunk ids than fit in a single checkpoint value
+        List<Chunk> plan = Chunk.range(td, "ID", null, null).split(200, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        new ChunkProgress(store, td).recordPlan(plan);
+        ChunkProgress progress = new ChunkProgress(store, td);
+        assertEquals(progress.plan().get().stream().map(Chunk::getId).collect(Collectors.toList()), plan.stream().map(Chunk::getId).collect(Collectors.toList()));
+
+        // a plan missing a chunk is not trusted
+        store.remove("planned:T:199");
+        assertFalse(progress.plan().isPresent());
+
+        progress.clear();
+        assertTrue(store.entries("").isEmpty(), "left "+store.entries(""));
+    }
+
+    @Test
+    public void testCheckpointTableOfAnotherSchemaIsIgnored() throws SQLException {
+        DataSource ds = dataSource();
+        execute(ds, "create schema OTHER authorization DBA", "create table OTHER.DBSTREAMER_CHECKPOINT (X integer)");
+
+        new TableCheckpointStore(ds).put("k", "v");
+        // a later run finds the table it created rather than creating it again
+        TableCheckpointStore store = new TableCheckpointStore(ds);
+        assertEquals(store.get("k"), Optional.of("v"));
+    }
+
+    @Test
+    public void testIncrementalCopyByKey() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        TableCheckpointStore store = new TableCheckpointStore(dataSource());
+        String ddl = "create table T (ID integer primary key, NAME varchar(10))";
+        execute(source, ddl, "insert into T values (1, 'a')", "insert into T values (2, 'b')", "insert into T values (3, 'c')");
+        execute(target, ddl);
+
+        DbStreamer streamer = new DbStreamer(source, target).withCheckpointStore(store).withIncremental("ID");
+        streamer.stream();
+        assertEquals(streamer.getTargetdB().countRows("T"), 3);
+        assertEquals(store.get(HighWaterMark.keyOf(streamer.sniff().get(0))), Optional.of("3"));
+
+        // up to date, so nothing is copied and the row removed from the target stays removed
+        execute(target, "delete from T where ID = 1");
+        streamer.stream();
+        assertEquals(streamer.getTargetdB().countRows("T"), 2);
+
+        // only the rows past the mark are copied
+        execute(source, "insert into T values (4, 'd')", "insert into T values (5, 'e')");
+        streamer.stream();
+        assertEquals(streamer.getTargetdB().countRows("T"), 4);
+        assertEquals(store.get(HighWaterMark.keyOf(streamer.sniff().get(0))), Optional.of("5"));
+    }
+
+    @Test
+    public void testIncrementalCopyByLastModified() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        TableCheckpointStore store = new TableCheckpointStore(dataSource());
+        String ddl = "create table T (ID integer primary key, NAME varchar(10), LAST_MODIFIED timestamp)";
+        execute(source, ddl, "insert into T values (1, 'a', timestamp '2026-01-01 00:00:00')", "insert into T values (2, 'b', timestamp '2026-01-02 00:00:00')");
+        execute(target, ddl);
+
+        DbStreamer streamer = new DbStreamer(source, target).withCheckpointStore(store).withIncremental("LAST_MODIFIED");
+        streamer.stream();
+        assertEquals(streamer.getTargetdB().countRows("T"), 2);
+
+        // the updated row is already in the target and is upserted rather than failing on its key
+        execute(source, "update T set NAME = 'a2', LAST_MODIFIED = timestamp '2026-01-03 00:00:00' where ID = 1", "insert into T values (3, 'c', timestamp '2026-01-04 00:00:00')");
+        streamer.stream();
+        assertEquals(streamer.getTargetdB().countRows("T"), 3);
+        try(Connection c = target.getConnection(); Statement st = c.createStatement(); ResultSet rs = st.executeQuery("select NAME from T where ID = 1")) {
+            assertTrue(rs.next());
+            assertEquals(rs.getString(1), "a2");
+        }
+    }
+
+    @Test
+    public void testIncrementalCopyByLastModifiedNeedsAKey() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String ddl = "create table T (ID integer, LAST_MODIFIED timestamp)";
+        execute(source, ddl, "insert into T values (1, timestamp '2026-01-01 00:00:00')");
+        execute(target, ddl);
+
+        DbStreamer streamer = new DbStreamer(source, target).withCheckpointStore(new TableCheckpointStore(dataSource())).withIncremental("LAST_MODIFIED");
+        try {
+            streamer.stream();
+            fail("a table without a key cannot apply changed rows");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("primary key"), e.getMessage());
+        }
+        assertEquals(streamer.getTargetdB().countRows("T"), 0);
+    }
+
+    @Test
+    public void testFanOutAcrossWriters() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String ddl = "create table T (ID integer primary key, NAME varchar(10))";
+        execute(source, ddl);
+        try(Connection c = source.getConnection(); PreparedStatement pstmt = c.prepareStatement("insert into T values (?, ?)")) {
+            for(int i=0; i<1000; i++) {
+                pstmt.setInt(1, i);
+                pstmt.setString(2, "name "+i);
+                pstmt.executeUpdate();
+            }
+        }
+        execute(target, ddl);
+
+        DbStreamer streamer = new DbStreamer(source, target).withBatchSize(50).withWriteOptions(WriteOptions.multiRow(4).withWriters(2));
+        streamer.stream();
+        assertEquals(streamer.getTargetdB().countRows("T"), 1000);
+
+        // the writers would wait on each other's open transactions for ever
+        try {
+            WriteOptions.multiRow(4).withWriters(2).withSingleTransaction();
+            fail("fan out with a single transaction should be refused");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            WriteOptions.multiRow(4).withSingleTransaction().withWriters(2);
+            fail("fan out with a single transaction should be refused");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNarrowColumnTypesCopyWithoutLoss() throws SQLException {
+        DataSource source = dataSource();
+        DataSource target = dataSource();
+        String ddl = "create table T (ID smallint primary key, FLAG tinyint, CODE char(3), AMT decimal(20,2), RATE real, BIN varbinary(8))";
+        execute(source, ddl, "insert into T values (1, 7, 'ab', 123456789012345678.91, 0.5, X'0102')", "insert into T values (2, null, null, null, null, null)");
+        execute(target, ddl);
+
+        DbStreamer streamer = new DbStreamer(source, target);
+        streamer.stream();
+
+        List<Integer> types = streamer.sniff().get(0).getColumnDefs().stream().map(cd -> cd.getDataType().sqlType()).collect(Collectors.toList());
+        assertEquals(types, Arrays.asList(Types.INTEGER, Types.INTEGER, Types.VARCHAR, Types.NUMERIC, Types.DOUBLE, Types.BLOB));
+        try(Connection c = target.getConnection(); Statement st = c.createStatement(); ResultSet rs = st.executeQuery("select * from T order by ID")) {
+            assertTrue(rs.next());
+            assertEquals(rs.getInt("FLAG"), 7);
+            assertEquals(rs.getString("CODE"), "ab ");
+            // a double would have rounded this away
+            assertEquals(rs.getBigDecimal("AMT"), new BigDecimal("123456789012345678.91"));
+            assertEquals(rs.getFloat("RATE"), 0.5f);
+            assertEquals(rs.getBytes("BIN"), new byte[]{1, 2});
+            assertTrue(rs.next());
+            assertNull(rs.getObject("AMT"));
+            assertNull(rs.getObject("BIN"));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.dfauth.dbstreamer;
+
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.*;
+
+public class DependencyGraphTestCase {
+
+    private static TableDefinition table(String name, String... dependencies) {
+        return new TableDefinition(name, new TreeSet<>(ColumnDefinition.comparator), Collections.emptyList(), new HashSet<>(Arrays.asList(dependencies)));
+    }
+
+    private static List<List<String>> names(DependencyGraph graph) {
+        return graph.waves().stream().map(w -> w.stream().map(TableDefinition::getName).sorted().collect(Collectors.toList())).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testWaves() {
+        DependencyGraph graph = new DependencyGraph(Arrays.asList(
+                table("EMPLOYEE", "DEPARTMENT", "EMPLOYEE"),
+                table("DEPARTMENT", "LOCATION"),
+                table("LOCATION"),
+                table("AUDIT", "UNKNOWN"),
+                table("TIMESHEET", "EMPLOYEE", "PROJECT"),
+                table("PROJECT")));
+        assertFalse(graph.hasCycles());
+        assertTrue(graph.hasSelfReferences());
+        assertEquals(names(graph), Arrays.asList(
+                Arrays.asList("AUDIT", "LOCATION", "PROJECT"),
+                Arrays.asList("DEPARTMENT"),
+                Arrays.asList("EMPLOYEE"),
+                Arrays.asList("TIMESHEET")));
+        assertEquals(graph.dependenciesOf(table("EMPLOYEE")), Collections.singleton("DEPARTMENT"));
+    }
+
+    @Test
+    public void testCycle() {
+        DependencyGraph graph = new DependencyGraph(Arrays.asList(
+                table("A", "B"),
+                table("B", "A", "C"),
+                table("C"),
+                table("D", "A")));
+        assertTrue(graph.hasCycles());
+        assertFalse(graph.hasSelfReferences());
+        List<String> order = graph.topologicalOrder().stream().map(TableDefinition::getName).collect(Collectors.toList());
+        assertEquals(order.size(), 4);
+        assertTrue(order.indexOf("C") < order.indexOf("B"));
+        assertTrue(order.indexOf("A") < order.indexOf("D"));
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Subscription;
+import org.testng.annotations.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.dfauth.dbstreamer.TestDatabases.dataSource;
+import static org.testng.Assert.*;
+
+public class DialectTestCase {
+
+    private static final List<String> COLUMNS = Arrays.asList("ID", "NAME");
+    private static final List<String> KEYS = Collections.singletonList("ID");
+
+    // records the settings a dialect makes on a connection and its statement, without a driver of that dialect
+    private static Map<String, Object> configureForRead(Dialect dialect, String url, ReadOptions options) throws SQLException {
+        Map<String, Object> settings = new HashMap<>();
+        DatabaseMetaData metaData = (DatabaseMetaData) Proxy.newProxyInstance(DialectTestCase.class.getClassLoader(), new Class[]{DatabaseMetaData.class},
+                (proxy, method, args) -> method.getName().equals("getURL") ? url : null);
+        Connection connection = (Connection) Proxy.newProxyInstance(DialectTestCase.class.getClassLoader(), new Class[]{Connection.class}, (proxy, method, args) -> {
+            switch(method.getName()) {
+                case "getMetaData":
+                    return metaData;
+                case "setAutoCommit":
+                    settings.put("autoCommit", args[0]);
+                    return null;
+                default:
+                    return null;
+            }
+        });
+        PreparedStatement pstmt = (PreparedStatement) Proxy.newProxyInstance(DialectTestCase.class.getClassLoader(), new Class[]{PreparedStatement.class}, (proxy, method, args) -> {
+            if(method.getName().equals("setFetchSize")) {
+                settings.put("fetchSize", args[0]);
+            }
+            return null;
+        });
+        dialect.configureForRead(connection, pstmt, options);
+        return settings;
+    }
+
+    @Test
+    public void testFetchSizeForStreamingReads() throws SQLException {
+        assertEquals(configureForRead(Dialect.GENERIC, "jdbc:any", ReadOptions.streaming(500)).get("fetchSize"), 500);
+        assertEquals(configureForRead(Dialect.HSQLDB, "jdbc:hsqldb:mem:x", ReadOptions.buffered(200)).get("fetchSize"), 200);
+        // a fetch size of 0 leaves the driver default alone
+        assertFalse(configureForRead(Dialect.GENERIC, "jdbc:any", ReadOptions.streaming(0)).containsKey("fetchSize"));
+
+        // Connector/J streams row by row only for Integer.MIN_VALUE, unless it was asked for a server side cursor
+        assertEquals(configureForRead(Dialect.MYSQL, "jdbc:mysql://db/x", ReadOptions.streaming(500)).get("fetchSize"), Integer.MIN_VALUE);
+        assertEquals(configureForRead(Dialect.MYSQL, "jdbc:mysql://db/x?useCursorFetch=true", ReadOptions.streaming(500)).get("fetchSize"), 500);
+        assertEquals(configureForRead(Dialect.MYSQL, "jdbc:mysql://db/x", ReadOptions.buffered(500)).get("fetchSize"), 500);
+
+        // the PostgreSQL driver only honours the fetch size inside a transaction
+        Map<String, Object> postgres = configureForRead(Dialect.POSTGRESQL, "jdbc:postgresql://db/x", ReadOptions.streaming(500));
+        assertEquals(postgres.get("fetchSize"), 500);
+        assertEquals(postgres.get("autoCommit"), false);
+        assertFalse(configureForRead(Dialect.POSTGRESQL, "jdbc:postgresql://db/x", ReadOptions.buffered(500)).containsKey("autoCommit"));
+    }
+
+    @Test
+    public void testUpsertStatements() {
+        assertEquals(Dialect.MYSQL.upsertStatement("EMP", COLUMNS, KEYS, 2),
+                "insert into EMP (ID,NAME) values (?,?),(?,?) on duplicate key update NAME=VALUES(NAME)");
+        assertEquals(Dialect.POSTGRESQL.upsertStatement("EMP", COLUMNS, KEYS, 1),
+                "insert into EMP (ID,NAME) values (?,?) on conflict (ID) do update set NAME=excluded.NAME");
+        assertEquals(Dialect.HSQLDB.upsertStatement("EMP", COLUMNS, KEYS, 1),
+                "merge into EMP t using (values (?,?)) s (ID,NAME) on t.ID=s.ID when matched then update set t.NAME=s.NAME when not matched then insert (ID,NAME) values (s.ID,s.NAME)");
+        assertTrue(Dialect.SQLSERVER.upsertStatement("EMP", COLUMNS, KEYS, 1).endsWith(";"));
+    }
+
+    @Test
+    public void testUpsertOfKeyOnlyTable() {
+        assertEquals(Dialect.POSTGRESQL.upsertStatement("LINK", KEYS, KEYS, 1),
+                "insert into LINK (ID) values (?) on conflict (ID) do nothing");
+        assertFalse(Dialect.HSQLDB.upsertStatement("LINK", KEYS, KEYS, 1).contains("when matched"));
+    }
+
+    @Test
+    public void testDigestQueriesSumAWideHashOfEveryColumn() {
+        for(Dialect dialect : new Dialect[]{Dialect.MYSQL, Dialect.SQLSERVER, Dialect.POSTGRESQL}) {
+            String query = dialect.digestQuery("EMP", COLUMNS, " where ID > ?").get();
+            // rows are hashed whole, nulls included, and summed rather than xor-ed
+            assertTrue(query.contains("ID,NAME"), query);
+            assertTrue(query.contains("sum("), query);
+            assertFalse(query.contains("checksum_agg") || query.contains("crc32") || query.contains("concat_ws"), query);
+            assertTrue(query.endsWith("from EMP where ID > ?") || query.endsWith("from EMP where ID > ?) d"), query);
+        }
+        assertFalse(Dialect.HSQLDB.digestQuery("EMP", COLUMNS, "").isPresent());
+    }
+
+    @Test
+    public void testUpsertOverExistingKeys() throws SQLException {
+        for(WriteOptions options : new WriteOptions[]{WriteOptions.DEFAULT, WriteOptions.multiRow(2)}) {
+            DataSource ds = dataSource();
+            try(Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+                st.execute("create table EMP (ID integer primary key, NAME varchar(10))");
+                st.execute("insert into EMP values (1, 'old')");
+                st.execute("insert into EMP values (2, 'old')");
+            }
+            TableDefinition td = new DbStreamer(null, ds).sniff().get(0);
+            RowBatch batch = td.getCodec().newBatch(3);
+            for(int id=2; id<=4; id++) {
+                int row = batch.addRow();
+                batch.set(0, row, id);
+                batch.set(1, row, "new "+id);
+            }
+
+            BatchWriter writer = new BatchWriter(td, ds.getConnection(), Dialect.HSQLDB, options.withUpsert(true), BatchSizeController.fixed(3), new TableMetrics("EMP", null));
+            try {
+                writer.write(batch);
+                writer.complete();
+            } finally {
+                writer.close();
+            }
+
+            Map<Integer, String> rows = new TreeMap<>();
+            try(Connection c = ds.getConnection(); Statement st = c.createStatement(); ResultSet rs = st.executeQuery("select ID, NAME from EMP")) {
+                while(rs.next()) {
+                    rows.put(rs.getInt(1), rs.getString(2));
+                }
+            }
+            assertEquals(rows.toString(), "{1=old, 2=new 2, 3=new 3, 4=new 4}", "upsert with "+options);
+        }
+    }
+
+    @Test
+    public void testUpsertWithoutPrimaryKeyIsReported() throws Exception {
+        DataSource ds = dataSource();
+        try(Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+            st.execute("create table LOG (MSG varchar(10))");
+        }
+        TargetDatabase db = new TargetDatabase(ds, Runnable::run);
+        TableDefinition td = new DbStreamer(null, ds).sniff().get(0);
+        CompletableFuture<Boolean> fut = new CompletableFuture<>();
+        boolean[] cancelled = new boolean[1];
+        // no exception escapes onSubscribe, the subscription is cancelled and the failure handed to the listener
+        db.asSubscriberFor(td, WriteOptions.DEFAULT.withUpsert(true), fut::complete, fut::completeExceptionally).onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                fail("nothing should be requested");
+            }
+
+            @Override
+            public void cancel() {
+                cancelled[0] = true;
+            }
+        });
+        assertTrue(cancelled[0]);
+        try {
+            fut.get(1, TimeUnit.SECONDS);
+            fail("the upsert should have been refused");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException, String.valueOf(e.getCause()));
+        }
+    }
+}
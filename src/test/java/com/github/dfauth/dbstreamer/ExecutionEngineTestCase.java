@@ -0,0 +1,184 @@
+package com.github.dfauth.dbstreamer;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.*;
+
+public class ExecutionEngineTestCase {
+
+    private static List<TableDefinition> tables(int n) {
+        List<TableDefinition> tmp = new ArrayList<>();
+        for(int i=0; i<n; i++) {
+            tmp.add(new TableDefinition("T"+i, new TreeSet<>(ColumnDefinition.comparator), Collections.emptyList()));
+        }
+        return tmp;
+    }
+
+    @Test
+    public void testRunBoundsTheTablesInFlight() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        try(ExecutionEngine engine = new ExecutionEngine(3)) {
+            // each table completes on the io pool, as a chunk copy does
+            CompletableFuture<List<String>> result = engine.run(tables(20), td -> CompletableFuture.supplyAsync(() -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return td.getName();
+            }, engine.getIoExecutor()));
+
+            Set<String> names = new HashSet<>(result.get(10, TimeUnit.SECONDS));
+            assertEquals(names.size(), 20);
+            assertEquals(names, tables(20).stream().map(TableDefinition::getName).collect(Collectors.toSet()));
+            assertTrue(peak.get() <= 3, "peak of "+peak.get()+" tables in flight");
+        }
+    }
+
+    @Test
+    public void testRunFailsWhenATableFails() throws Exception {
+        try(ExecutionEngine engine = new ExecutionEngine(2)) {
+            CompletableFuture<List<String>> result = engine.run(tables(5), td -> {
+                if(td.getName().equals("T3")) {
+                    CompletableFuture<String> fut = new CompletableFuture<>();
+                    fut.completeExceptionally(new IllegalStateException("copy of T3 failed"));
+                    return fut;
+                }
+                return CompletableFuture.completedFuture(td.getName());
+            });
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("a failed table should fail the run");
+            } catch (ExecutionException e) {
+                Throwable t = e;
+                while(t.getCause() != null && !(t instanceof IllegalStateException)) {
+                    t = t.getCause();
+                }
+                assertTrue(t instanceof IllegalStateException, String.valueOf(e.getCause()));
+            }
+        }
+    }
+
+    @Test
+    public void testResubmissionAtTheIoThreadLimit() throws Exception {
+        int limit = ExecutionEngine.ioThreadsFor(1, 2, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        try(ExecutionEngine engine = new ExecutionEngine(1, limit)) {
+            Executor io = engine.getIoExecutor();
+            // every thread but one is held by a blocking reader
+            for(int i=0; i<limit-1; i++) {
+                io.execute(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            // like a drain woken again, each task submits its successor while its own thread is still busy
+            CompletableFuture<Integer> done = new CompletableFuture<>();
+            AtomicInteger remaining = new AtomicInteger(10_000);
+            Runnable[] task = new Runnable[1];
+            task[0] = () -> {
+                try {
+                    if(remaining.decrementAndGet() == 0) {
+                        done.complete(limit);
+                    } else {
+                        io.execute(task[0]);
+                    }
+                } catch (RuntimeException e) {
+                    done.completeExceptionally(e);
+                }
+            };
+            io.execute(task[0]);
+            assertEquals(done.get(10, TimeUnit.SECONDS).intValue(), limit);
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testInFlightStartsTasksAsEarlierOnesComplete() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<CompletableFuture<Integer>> pending = new ArrayList<>();
+        List<Supplier<CompletableFuture<Integer>>> tasks = new ArrayList<>();
+        for(int i=0; i<100; i++) {
+            int n = i;
+            tasks.add(() -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                CompletableFuture<Integer> fut = new CompletableFuture<>();
+                pending.add(fut);
+                return fut.thenApply(v -> n);
+            });
+        }
+
+        CompletableFuture<List<Integer>> result = ExecutionEngine.inFlight(tasks, 3);
+        // completing one task starts the next, so the pending list grows while it is walked
+        for(int i=0; i<pending.size(); i++) {
+            assertTrue(running.get() <= 3);
+            running.decrementAndGet();
+            pending.get(i).complete(null);
+        }
+
+        List<Integer> values = result.get(10, TimeUnit.SECONDS);
+        assertEquals(pending.size(), 100);
+        assertEquals(peak.get(), 3);
+        for(int i=0; i<100; i++) {
+            assertEquals(values.get(i).intValue(), i);
+        }
+    }
+
+    @Test
+    public void testInFlightCompletingSynchronously() throws Exception {
+        List<Supplier<CompletableFuture<Integer>>> tasks = new ArrayList<>();
+        for(int i=0; i<100_000; i++) {
+            int n = i;
+            tasks.add(() -> CompletableFuture.completedFuture(n));
+        }
+        // tasks completing as they start must not recurse into the next start
+        assertEquals(ExecutionEngine.inFlight(tasks, 2).get(10, TimeUnit.SECONDS).size(), 100_000);
+    }
+
+    @Test
+    public void testFailureStopsLaterTasks() throws Exception {
+        AtomicInteger started = new AtomicInteger();
+        List<Supplier<CompletableFuture<Integer>>> tasks = new ArrayList<>();
+        for(int i=0; i<10; i++) {
+            int n = i;
+            tasks.add(() -> {
+                started.incrementAndGet();
+                if(n == 1) {
+                    throw new IllegalStateException("chunk "+n+" failed");
+                }
+                return CompletableFuture.completedFuture(n);
+            });
+        }
+        try {
+            ExecutionEngine.inFlight(tasks, 1).get(10, TimeUnit.SECONDS);
+            fail("a failed task should fail the whole");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            assertTrue(cause instanceof IllegalStateException, String.valueOf(cause));
+        }
+        assertEquals(started.get(), 2);
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.*;
+
+public class FluxQueueWrapperTestCase {
+
+    @Test
+    public void testRingBuffer() {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(3);
+        assertEquals(buffer.capacity(), 4);
+        for(int i=0; i<4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(buffer.poll(), Integer.valueOf(0));
+        assertTrue(buffer.offer(4));
+        List<Integer> tmp = new ArrayList<>();
+        assertEquals(buffer.drain(tmp::add, 3), 3);
+        assertEquals(tmp.size(), 3);
+        assertEquals(buffer.size(), 1);
+        assertEquals(buffer.poll(), Integer.valueOf(4));
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        int prefetch = 16;
+        int n = 1000;
+        AtomicLong outstanding = new AtomicLong();
+        AtomicLong maxOutstanding = new AtomicLong();
+        Publisher<Integer> source = s -> s.onSubscribe(new Subscription() {
+            private int next = 0;
+            @Override
+            public synchronized void request(long r) {
+                maxOutstanding.accumulateAndGet(outstanding.addAndGet(r), Math::max);
+                while(outstanding.get() > 0 && next < n) {
+                    outstanding.decrementAndGet();
+                    s.onNext(next++);
+                }
+                if(next == n) {
+                    s.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+
+        CompletableFuture<List<Integer>> fut = new CompletableFuture<>();
+        new FluxQueueWrapper<>(source, prefetch).subscribe(new Subscriber<Integer>() {
+            private final List<Integer> received = new ArrayList<>();
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(Integer i) {
+                received.add(i);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fut.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                fut.complete(received);
+            }
+        });
+
+        List<Integer> received = fut.get(10, TimeUnit.SECONDS);
+        assertEquals(received.size(), n);
+        for(int i=0; i<n; i++) {
+            assertEquals(received.get(i), Integer.valueOf(i));
+        }
+        assertTrue(maxOutstanding.get() <= prefetch, "upstream demand "+maxOutstanding.get()+" exceeded prefetch "+prefetch);
+    }
+
+    @Test
+    public void testRejectedDrainFailsTheStream() throws Exception {
+        // a pool of one thread, kept busy, refuses the drain the first item schedules
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Publisher<Integer> source = s -> s.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                s.onNext(1);
+            }
+
+            @Override
+            public void cancel() {
+                cancelled.set(true);
+            }
+        });
+        try {
+            CompletableFuture<Void> fut = new CompletableFuture<>();
+            new FluxQueueWrapper<>(source, 16, executor).subscribe(terminalOf(fut, false));
+            try {
+                fut.get(10, TimeUnit.SECONDS);
+                fail("the stream should fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException, String.valueOf(e.getCause()));
+            }
+            assertTrue(cancelled.get());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testThrowingSubscriberFailsTheStream() throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Publisher<Integer> source = s -> s.onSubscribe(new Subscription() {
+            private int next = 0;
+
+            @Override
+            public synchronized void request(long n) {
+                for(long i=0; i<n && next < 100; i++) {
+                    s.onNext(next++);
+                }
+            }
+
+            @Override
+            public void cancel() {
+                cancelled.set(true);
+            }
+        });
+        try {
+            CompletableFuture<Void> fut = new CompletableFuture<>();
+            new FluxQueueWrapper<>(source, 16, executor).subscribe(terminalOf(fut, true));
+            try {
+                fut.get(10, TimeUnit.SECONDS);
+                fail("the stream should fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+            }
+            assertTrue(cancelled.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Subscriber<Integer> terminalOf(CompletableFuture<Void> fut, boolean throwOnNext) {
+        return new Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Integer i) {
+                if(throwOnNext) {
+                    throw new IllegalStateException("unable to take "+i);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fut.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                fut.complete(null);
+            }
+        };
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.dfauth.dbstreamer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class LatencyHistogramTestCase {
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i=0; i<99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+        assertEquals(histogram.getCount(), 100);
+        // bucket upper bounds, within a factor of two of the recorded value
+        assertEquals(histogram.percentile(0.5), 1023);
+        assertEquals(histogram.percentile(0.99), 1023);
+        assertEquals(histogram.percentile(1.0), 1000000);
+        assertEquals(histogram.snapshot().getMaxMicros(), 1000);
+        histogram.reset();
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.percentile(0.5), 0);
+    }
+
+    @Test
+    public void testTableMetricsRollUp() {
+        TableMetrics global = new TableMetrics("global", null);
+        TableMetrics table = new TableMetrics("EMP", global);
+        table.read(100, 1000, 10);
+        table.read(50, 500, 10);
+        table.written(100, 4000, 20);
+        table.error();
+        assertEquals(table.getQueueDepth(), 1);
+        assertEquals(global.getRowsRead(), 150);
+        assertEquals(global.getBytesRead(), 1500);
+        assertEquals(global.getBytesWritten(), 4000);
+        assertEquals(global.getErrors(), 1);
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.dfauth.dbstreamer;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import static org.testng.Assert.*;
+
+public class LobsTestCase {
+
+    private static final int[] SIZES = {0, 10, Lobs.CHUNK - 1, Lobs.CHUNK, Lobs.CHUNK + 1, 3 * Lobs.CHUNK + 5};
+
+    @Test
+    public void testBlobsOfEverySizeAcrossShortReads() throws SQLException {
+        for(int size : SIZES) {
+            byte[] bytes = new byte[size];
+            for(int i=0; i<size; i++) {
+                bytes[i] = (byte) i;
+            }
+            // drivers hand out less than asked for, this one at most 1000 bytes a read
+            Blob blob = Lobs.readBlob(new FilterInputStream(new ByteArrayInputStream(bytes)) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return super.read(b, off, Math.min(len, 1000));
+                }
+            });
+            assertEquals(blob.length(), size);
+            assertTrue(Arrays.equals(blob.getBytes(1, size), bytes), "blob of "+size+" bytes");
+        }
+        assertNull(Lobs.readBlob(null));
+    }
+
+    @Test
+    public void testClobsOfEverySizeAcrossShortReads() throws SQLException {
+        for(int size : SIZES) {
+            char[] chars = new char[size];
+            for(int i=0; i<size; i++) {
+                chars[i] = (char) ('a' + i % 26);
+            }
+            String s = new String(chars);
+            String clob = Lobs.readClob(new FilterReader(new StringReader(s)) {
+                @Override
+                public int read(char[] b, int off, int len) throws IOException {
+                    return super.read(b, off, Math.min(len, 1000));
+                }
+            });
+            assertEquals(clob, s, "clob of "+size+" chars");
+        }
+        assertNull(Lobs.readClob(null));
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.dfauth.dbstreamer;
+
+import org.testng.annotations.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import static org.testng.Assert.*;
+
+public class MetricsTestCase {
+
+    @Test
+    public void testTablesAreRegisteredAsMXBeans() throws JMException {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        Metrics metrics = new Metrics(server);
+        ObjectName global = new ObjectName(Metrics.DOMAIN+":type=Global");
+        ObjectName emp = new ObjectName(Metrics.DOMAIN+":type=Table,name="+ObjectName.quote("EMP"));
+        assertTrue(server.isRegistered(global));
+        assertFalse(server.isRegistered(emp));
+
+        TableMetrics table = metrics.forTable("EMP");
+        assertSame(metrics.forTable("EMP"), table);
+        assertTrue(server.isRegistered(emp));
+        table.read(100, 2500, 1000);
+        table.written(80, 4000, 2000);
+
+        assertEquals(server.getAttribute(emp, "Name"), "EMP");
+        assertEquals(server.getAttribute(emp, "RowsRead"), 100L);
+        assertEquals(server.getAttribute(emp, "BytesRead"), 2500L);
+        assertEquals(server.getAttribute(emp, "RowsWritten"), 80L);
+        assertEquals(server.getAttribute(emp, "QueueDepth"), 0L);
+        assertEquals(server.getAttribute(global, "BytesRead"), 2500L);
+        assertEquals(server.getAttribute(global, "BytesWritten"), 4000L);
+        // the latency snapshot is mapped to open types, readable by any jmx client
+        CompositeData latency = (CompositeData) server.getAttribute(emp, "WriteLatency");
+        assertEquals(latency.get("count"), 1L);
+
+        server.invoke(emp, "reset", null, null);
+        assertEquals(table.getRowsRead(), 0);
+        assertEquals(table.getBytesRead(), 0);
+    }
+
+    @Test
+    public void testTableNamesAreQuoted() throws JMException {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        new Metrics(server).forTable("dbo.\"ODD,NAME\"");
+        assertEquals(server.queryNames(new ObjectName(Metrics.DOMAIN+":type=Table,*"), null).size(), 1);
+        assertEquals(server.getAttribute(new ObjectName(Metrics.DOMAIN+":type=Table,name="+ObjectName.quote("dbo.\"ODD,NAME\"")), "Name"), "dbo.\"ODD,NAME\"");
+    }
+
+    @Test
+    public void testALaterRunReplacesTheRegistration() throws JMException {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        new Metrics(server).forTable("EMP").read(10, 100, 1);
+        TableMetrics second = new Metrics(server).forTable("EMP");
+        second.read(1, 10, 1);
+        assertEquals(server.getAttribute(new ObjectName(Metrics.DOMAIN+":type=Table,name="+ObjectName.quote("EMP")), "RowsRead"), 1L);
+    }
+
+    @Test
+    public void testWithoutAServer() {
+        TableMetrics table = new Metrics(null).forTable("EMP");
+        table.read(5, 50, 1);
+        assertEquals(table.getRowsRead(), 5);
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.dfauth.dbstreamer;
+
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.testng.Assert.*;
+
+public class SegmentTestCase {
+
+    private static TableDefinition table(String... types) {
+        SortedSet<ColumnDefinition> columns = new TreeSet<>(ColumnDefinition.comparator);
+        for(int i=0; i<types.length; i++) {
+            columns.add(new ColumnDefinition("T", i+1, "C"+(i+1), DataType.Factory.findBySqlType(types[i]).create()));
+        }
+        return new TableDefinition("T", columns);
+    }
+
+    @Test
+    public void testRoundTrip() throws SQLException {
+        TableDefinition td = table("integer", "bigint", "double precision", "character varying", "numeric", "timestamp", "boolean", "clob");
+        RowBatch batch = td.getCodec().newBatch(100);
+        for(int i=0; i<70; i++) {
+            int row = batch.addRow();
+            batch.set(0, row, i);
+            batch.set(1, row, i % 5 == 0 ? null : (long) i << 33);
+            batch.set(2, row, i * 0.25);
+            batch.set(3, row, i % 3 == 0 ? null : "r\u00e9sum\u00e9 "+i);
+            batch.set(4, row, new BigDecimal(i).movePointLeft(3));
+            Timestamp ts = new Timestamp(1000L * i);
+            ts.setNanos(i * 7);
+            batch.set(5, row, ts);
+            batch.set(6, row, i % 2 == 0);
+            batch.set(7, row, i % 4 == 0 ? null : String.join("", Collections.nCopies(i, "clob ")));
+        }
+
+        ByteBuffer block = Segment.encode(batch, new Segment.Encoder(16));
+        assertEquals(block.getLong(), block.remaining());
+        RowBatch decoded = Segment.decode(block.slice().order(Segment.ORDER), td.getCodec().newBatch(70), new Segment.Decoder());
+
+        assertEquals(decoded.size(), 70);
+        for(int row=0; row<70; row++) {
+            for(int col=0; col<batch.width(); col++) {
+                assertEquals(decoded.get(col, row), batch.get(col, row), "row "+row+" column "+col);
+            }
+        }
+    }
+
+    @Test
+    public void testHeader() {
+        TableDefinition td = table("integer", "character varying");
+        TableDefinition read = Segment.readHeader(Segment.header(td).order(Segment.ORDER));
+        assertEquals(read.getName(), "T");
+        Segment.checkCompatible(read, td);
+        try {
+            Segment.checkCompatible(read, table("integer", "bigint"));
+            fail("columns of different types should not be compatible");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.annotations.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static com.github.dfauth.dbstreamer.TestDatabases.dataSource;
+import static org.testng.Assert.*;
+
+public class SourceDatabaseTestCase {
+
+    private static TableDefinition populate(DataSource ds, int rows) throws SQLException {
+        try(Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+            st.execute("create table T (ID integer primary key, NAME varchar(20))");
+        }
+        try(Connection c = ds.getConnection(); PreparedStatement pstmt = c.prepareStatement("insert into T values (?, ?)")) {
+            for(int i=0; i<rows; i++) {
+                pstmt.setInt(1, i);
+                pstmt.setString(2, "name"+i);
+                pstmt.executeUpdate();
+            }
+        }
+        return new DbStreamer(null, ds).sniff().get(0);
+    }
+
+    private static void await(BooleanSupplier condition, String description) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting until "+description);
+            Thread.sleep(5);
+        }
+    }
+
+    // a reader out of demand waits inside the cursor, holding it open
+    private static boolean readerParked() {
+        return Thread.getAllStackTraces().entrySet().stream()
+                .filter(e -> e.getKey().getState() == Thread.State.WAITING)
+                .anyMatch(e -> Stream.of(e.getValue()).anyMatch(f -> f.getMethodName().equals("awaitDemand")));
+    }
+
+    @Test
+    public void testPublisherHonoursDemand() throws Exception {
+        DataSource source = dataSource();
+        TableDefinition td = populate(source, 100);
+        Metrics metrics = new Metrics(null);
+        TableMetrics tableMetrics = metrics.forTable("T");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Publisher<RowBatch> publisher = new SourceDatabase(source, executor, metrics).asPublisherFor(Chunk.all(td), 10, ReadOptions.DEFAULT);
+            List<RowBatch> batches = new CopyOnWriteArrayList<>();
+            CountDownLatch[] arrived = {new CountDownLatch(1)};
+            CompletableFuture<Subscription> subscribed = new CompletableFuture<>();
+            CompletableFuture<Boolean> terminated = new CompletableFuture<>();
+            publisher.subscribe(new Subscriber<RowBatch>() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    subscribed.complete(s);
+                    s.request(1);
+                }
+
+                @Override
+                public void onNext(RowBatch batch) {
+                    batches.add(batch);
+                    arrived[0].countDown();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    terminated.completeExceptionally(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    terminated.complete(true);
+                }
+            });
+            Subscription subscription = subscribed.get(10, TimeUnit.SECONDS);
+
+            assertTrue(arrived[0].await(10, TimeUnit.SECONDS));
+            // the read ahead holds the two batches prefetched after the one delivered, then the reader waits for demand
+            await(() -> tableMetrics.getBatchesRead() == 3, "the read ahead is full");
+            await(SourceDatabaseTestCase::readerParked, "the reader parks");
+            assertEquals(tableMetrics.getBatchesRead(), 3);
+            assertEquals(batches.size(), 1);
+            assertEquals(batches.get(0).size(), 10);
+
+            arrived[0] = new CountDownLatch(2);
+            subscription.request(2);
+            assertTrue(arrived[0].await(10, TimeUnit.SECONDS));
+            await(() -> tableMetrics.getBatchesRead() == 5, "the read ahead is refilled");
+            await(SourceDatabaseTestCase::readerParked, "the reader parks");
+            assertEquals(tableMetrics.getBatchesRead(), 5);
+            assertEquals(batches.size(), 3);
+
+            subscription.cancel();
+            await(() -> !readerParked(), "the reader lets go of the cursor");
+            assertEquals(batches.size(), 3);
+            assertEquals(tableMetrics.getRowsRead(), 50);
+            assertFalse(terminated.isDone(), "a cancelled stream is not terminated");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUnboundedDemandReadsEveryRow() throws Exception {
+        DataSource source = dataSource();
+        TableDefinition td = populate(source, 95);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Publisher<RowBatch> publisher = new SourceDatabase(source, executor, new Metrics(null)).asPublisherFor(Chunk.all(td), 10, ReadOptions.DEFAULT);
+            List<RowBatch> batches = new CopyOnWriteArrayList<>();
+            CompletableFuture<Boolean> terminated = new CompletableFuture<>();
+            publisher.subscribe(new Subscriber<RowBatch>() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    s.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(RowBatch batch) {
+                    batches.add(batch);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    terminated.completeExceptionally(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    terminated.complete(true);
+                }
+            });
+            assertTrue(terminated.get(10, TimeUnit.SECONDS));
+            assertEquals(batches.size(), 10);
+            assertEquals(batches.stream().mapToInt(RowBatch::size).sum(), 95);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
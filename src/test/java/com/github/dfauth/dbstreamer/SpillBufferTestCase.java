@@ -0,0 +1,170 @@
+package com.github.dfauth.dbstreamer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+public class SpillBufferTestCase {
+
+    private static final int BATCHES = 200;
+    private static final int ROWS = 100;
+
+    @Test
+    public void testSourceIsReleasedWhileTargetStalls() throws Exception {
+        TableDefinition td = tableDefinition();
+        CountDownLatch sourceDone = new CountDownLatch(1);
+        Path dir = Files.createTempDirectory("spill");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            SpillBuffer buffer = new SpillBuffer(source(td, sourceDone), td, dir, 4096, Long.MAX_VALUE, executor);
+            Subscription[] subscription = new Subscription[1];
+            CompletableFuture<List<Integer>> fut = collect(buffer, subscription);
+
+            // nothing has been asked for downstream, yet the whole source has been read
+            assertTrue(sourceDone.await(10, TimeUnit.SECONDS));
+            assertTrue(buffer.getOnDiskBytes() > 0);
+            assertTrue(buffer.getInMemoryBytes() <= 4096 + 2 * ROWS * 16, "held "+buffer.getInMemoryBytes()+" bytes in memory");
+
+            subscription[0].request(Long.MAX_VALUE);
+            assertInOrder(fut.get(10, TimeUnit.SECONDS));
+            try(Stream<Path> files = Files.list(dir)) {
+                assertEquals(files.count(), 0L, "spill files were left behind");
+            }
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testWatermarkIsSharedBetweenBuffers() throws Exception {
+        TableDefinition td = tableDefinition();
+        CountDownLatch sourcesDone = new CountDownLatch(2);
+        AtomicLong heap = new AtomicLong();
+        Path dir = Files.createTempDirectory("spill");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            SpillBuffer first = new SpillBuffer(source(td, sourcesDone), td, dir, heap, 4096, Long.MAX_VALUE, executor);
+            SpillBuffer second = new SpillBuffer(source(td, sourcesDone), td, dir, heap, 4096, Long.MAX_VALUE, executor);
+            Subscription[] firstSubscription = new Subscription[1];
+            Subscription[] secondSubscription = new Subscription[1];
+            CompletableFuture<List<Integer>> firstFut = collect(first, firstSubscription);
+            CompletableFuture<List<Integer>> secondFut = collect(second, secondSubscription);
+
+            // the two together stay within one watermark, plus the batch each keeps at its head
+            assertTrue(sourcesDone.await(10, TimeUnit.SECONDS));
+            assertEquals(heap.get(), first.getInMemoryBytes() + second.getInMemoryBytes());
+            assertTrue(heap.get() <= 4096 + 2 * ROWS * 16, "held "+heap.get()+" bytes in memory");
+
+            firstSubscription[0].request(Long.MAX_VALUE);
+            secondSubscription[0].request(Long.MAX_VALUE);
+            assertInOrder(firstFut.get(10, TimeUnit.SECONDS));
+            assertInOrder(secondFut.get(10, TimeUnit.SECONDS));
+            assertEquals(heap.get(), 0L);
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static TableDefinition tableDefinition() {
+        SortedSet<ColumnDefinition> columns = new TreeSet<>(ColumnDefinition.comparator);
+        columns.add(new ColumnDefinition("T", 1, "ID", DataType.Factory.INTEGER_FACTORY.create()));
+        columns.add(new ColumnDefinition("T", 2, "NAME", DataType.Factory.VARCHAR_FACTORY.create()));
+        return new TableDefinition("T", columns);
+    }
+
+    // emits BATCHES batches as fast as they are asked for, counting down sourceDone once all are out
+    private static Publisher<RowBatch> source(TableDefinition td, CountDownLatch sourceDone) {
+        return s -> s.onSubscribe(new Subscription() {
+            private int next = 0;
+            private long demand = 0;
+            private boolean emitting = false;
+            private boolean completed = false;
+
+            @Override
+            public synchronized void request(long n) {
+                demand += n;
+                if(emitting) {
+                    return;
+                }
+                emitting = true;
+                while(demand > 0 && next < BATCHES) {
+                    demand--;
+                    RowBatch batch = td.getCodec().newBatch(ROWS);
+                    for(int i=0; i<ROWS; i++) {
+                        int row = batch.addRow();
+                        batch.set(0, row, next * ROWS + i);
+                        batch.set(1, row, i % 7 == 0 ? null : "name "+i);
+                    }
+                    next++;
+                    s.onNext(batch);
+                }
+                emitting = false;
+                if(next == BATCHES && !completed) {
+                    completed = true;
+                    sourceDone.countDown();
+                    s.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+    }
+
+    private static CompletableFuture<List<Integer>> collect(Publisher<RowBatch> publisher, Subscription[] subscription) {
+        CompletableFuture<List<Integer>> fut = new CompletableFuture<>();
+        List<Integer> received = new ArrayList<>();
+        publisher.subscribe(new Subscriber<RowBatch>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription[0] = s;
+            }
+
+            @Override
+            public void onNext(RowBatch batch) {
+                for(int row=0; row<batch.size(); row++) {
+                    received.add(batch.getInt(0, row));
+                    assertEquals(batch.get(1, row), row % 7 == 0 ? null : "name "+row);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fut.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                fut.complete(received);
+            }
+        });
+        return fut;
+    }
+
+    private static void assertInOrder(List<Integer> received) {
+        assertEquals(received.size(), BATCHES * ROWS);
+        for(int i=0; i<received.size(); i++) {
+            assertEquals(received.get(i), Integer.valueOf(i));
+        }
+    }
+}
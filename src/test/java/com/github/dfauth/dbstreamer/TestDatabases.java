@@ -0,0 +1,26 @@
+package com.github.dfauth.dbstreamer;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+// a fresh in memory database per call, so no two tests see each other's tables
+class TestDatabases {
+
+    private TestDatabases() {
+    }
+
+    static DataSource dataSource() {
+        return DataSourceConfig.builder().withDriver("org.hsqldb.jdbcDriver").withUrl("jdbc:hsqldb:mem:"+UUID.randomUUID()).withUsername("SA").withPassword("").build();
+    }
+
+    static void execute(DataSource ds, String... statements) throws SQLException {
+        try(Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+            for(String s : statements) {
+                st.execute(s);
+            }
+        }
+    }
+}